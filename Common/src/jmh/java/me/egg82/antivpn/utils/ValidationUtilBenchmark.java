@@ -0,0 +1,49 @@
+package me.egg82.antivpn.utils;
+
+import inet.ipaddr.AddressStringException;
+import inet.ipaddr.AddressValueException;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import inet.ipaddr.IncompatibleAddressException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocation-free IP check against parsing with the library
+ * Run with "gradlew :antivpn-common:jmh", or "gradlew :antivpn-common:jmh --args='-prof gc'" to also show allocations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationUtilBenchmark {
+    @Param({ "203.0.113.42", "2001:db8:85a3::8a2e:370:7334", "::ffff:203.0.113.42", "fe80::1%eth0", "not an ip" })
+    public String ip;
+
+    @Benchmark
+    public boolean validationUtil() {
+        return ValidationUtil.isValidIp(ip);
+    }
+
+    @Benchmark
+    public boolean ipAddressString() {
+        try {
+            IPAddress address = new IPAddressString(ip).toAddress();
+            return address != null && !address.isMultiple();
+        } catch(AddressStringException | AddressValueException | IncompatibleAddressException ignored) {
+            return false;
+        }
+    }
+}
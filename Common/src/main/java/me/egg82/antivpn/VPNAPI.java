@@ -1,14 +1,30 @@
 package me.egg82.antivpn;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
-import com.google.common.util.concurrent.AtomicDouble;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import inet.ipaddr.AddressStringException;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import me.egg82.antivpn.apis.RateLimitException;
 import me.egg82.antivpn.apis.SourceAPI;
+import me.egg82.antivpn.apis.SourceHttpClient;
+import me.egg82.antivpn.apis.vpn.AbstractSourceAPI;
+import me.egg82.antivpn.core.IPKey;
 import me.egg82.antivpn.core.PostVPNResult;
 import me.egg82.antivpn.core.VPNResult;
 import me.egg82.antivpn.extended.CachedConfigValues;
 import me.egg82.antivpn.messaging.Messaging;
 import me.egg82.antivpn.messaging.MessagingException;
+import me.egg82.antivpn.services.CacheSnapshot;
+import me.egg82.antivpn.services.CircuitBreaker;
+import me.egg82.antivpn.services.IPv4BlockTable;
+import me.egg82.antivpn.services.InFlightRequests;
+import me.egg82.antivpn.services.OffHeapVerdictCache;
+import me.egg82.antivpn.services.PrefixAggregator;
+import me.egg82.antivpn.services.SourceMetrics;
 import me.egg82.antivpn.services.StorageMessagingHandler;
 import me.egg82.antivpn.storage.Storage;
 import me.egg82.antivpn.storage.StorageException;
@@ -20,18 +36,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongepowered.configurate.ConfigurationNode;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 public class VPNAPI {
     private static final Logger logger = LoggerFactory.getLogger(VPNAPI.class);
@@ -47,9 +81,28 @@ public class VPNAPI {
         return api;
     }
 
-    private static LoadingCache<String, Boolean> cascadeCache = null;
-    private static LoadingCache<String, Double> consensusCache = null;
-    private static LoadingCache<String, Boolean> sourceValidationCache = Caffeine.newBuilder().expireAfterWrite(1L, TimeUnit.MINUTES).build(k -> Boolean.TRUE);
+    private static AsyncLoadingCache<IPKey, Boolean> cascadeCache = null;
+    private static AsyncLoadingCache<IPKey, Double> consensusCache = null;
+    private static final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    // Source queries and cache loads get separate pools so a load waiting on its sources can never starve them
+    private static volatile ThreadPoolExecutor sourcePool = null;
+    private static volatile ThreadPoolExecutor lookupPool = null;
+    private static volatile ThreadPoolExecutor bridgePool = null;
+
+    // Concurrent storage reads and source calls for the same IP share a single request
+    private static final InFlightRequests inFlightRequests = new InFlightRequests();
+    private static final Set<String> pendingRefreshes = ConcurrentHashMap.newKeySet();
+
+    private static final SourceMetrics sourceMetrics = new SourceMetrics();
+    private static volatile PrefixAggregator cascadePrefixes = null;
+    private static volatile PrefixAggregator consensusPrefixes = null;
+    private static volatile IPv4BlockTable blockTable = null;
+    private static volatile OffHeapVerdictCache verdictCache = null;
+    private static final long DEFAULT_HEDGE_DELAY = 1000L;
+    private static final int ADAPTIVE_MIN_SAMPLES = 5;
+    private static final long ADAPTIVE_MAX_AGE = TimeUnit.MINUTES.toMillis(10L);
+    private static final int PRELOAD_PAGE_SIZE = 500;
 
     public static void reload() {
         Optional<ConfigurationNode> config = ConfigUtil.getConfig();
@@ -63,8 +116,508 @@ public class VPNAPI {
             return;
         }
 
-        cascadeCache = Caffeine.newBuilder().expireAfterAccess(cachedConfig.get().getCacheTime().getTime(), cachedConfig.get().getCacheTime().getUnit()).expireAfterWrite(cachedConfig.get().getCacheTime().getTime(), cachedConfig.get().getCacheTime().getUnit()).build(VPNAPI::cascadeExpensive);
-        consensusCache = Caffeine.newBuilder().expireAfterAccess(cachedConfig.get().getCacheTime().getTime(), cachedConfig.get().getCacheTime().getUnit()).expireAfterWrite(cachedConfig.get().getCacheTime().getTime(), cachedConfig.get().getCacheTime().getUnit()).build(VPNAPI::consensusExpensive);
+        circuitBreakers.clear();
+
+        ThreadPoolExecutor oldSourcePool = sourcePool;
+        ThreadPoolExecutor oldLookupPool = lookupPool;
+        ThreadPoolExecutor oldBridgePool = bridgePool;
+        sourcePool = createPool("AntiVPN-Source-%d", cachedConfig.get().getThreads());
+        lookupPool = createPool("AntiVPN-Lookup-%d", cachedConfig.get().getThreads());
+        // Kept apart from sourcePool, whose threads block waiting on these
+        bridgePool = createPool("AntiVPN-SourceBridge-%d", cachedConfig.get().getThreads());
+        AbstractSourceAPI.setBridgePool(bridgePool);
+        SourceHttpClient.reload(cachedConfig.get().getHttpPoolMaxIdle(), cachedConfig.get().getHttpPoolKeepAlive());
+
+        // Carry the old caches over through the snapshot file, same as a restart
+        saveCaches(cachedConfig.get());
+
+        // Entries read in the last quarter of their life are reloaded in the background while the old value is still served
+        // Expiry is per-entry so entries loaded from a snapshot keep their remaining lifetime
+        long cacheTime = cachedConfig.get().getCacheTime().getMillis();
+        long refreshTime = Math.max(1L, cacheTime * 3L / 4L);
+        cascadeCache = Caffeine.newBuilder().executor(lookupPool).refreshAfterWrite(refreshTime, TimeUnit.MILLISECONDS).expireAfter(VPNAPI.<Boolean>expireAfterWrite(cacheTime)).buildAsync(k -> cascadeExpensive(getClientKey(cascadePrefixes, k)));
+        consensusCache = Caffeine.newBuilder().executor(lookupPool).refreshAfterWrite(refreshTime, TimeUnit.MILLISECONDS).expireAfter(VPNAPI.<Double>expireAfterWrite(cacheTime)).buildAsync(k -> consensusExpensive(getClientKey(consensusPrefixes, k)));
+        loadCaches(cachedConfig.get());
+
+        if(cachedConfig.get().getAggregation()) {
+            cascadePrefixes = createAggregator(cachedConfig.get());
+            consensusPrefixes = createAggregator(cachedConfig.get());
+        } else {
+            cascadePrefixes = null;
+            consensusPrefixes = null;
+        }
+        reloadBlockTable(cachedConfig.get());
+        reloadVerdictCache(cachedConfig.get());
+        preloadCaches(cachedConfig.get());
+
+        // Let anything already in-flight on the old pools finish
+        if(oldSourcePool != null) {
+            oldSourcePool.shutdown();
+        }
+        if(oldLookupPool != null) {
+            oldLookupPool.shutdown();
+        }
+        if(oldBridgePool != null) {
+            oldBridgePool.shutdown();
+        }
+    }
+
+    public static void close() {
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if(cachedConfig.isPresent()) {
+            saveCaches(cachedConfig.get());
+        }
+
+        ThreadPoolExecutor oldSourcePool = sourcePool;
+        ThreadPoolExecutor oldLookupPool = lookupPool;
+        ThreadPoolExecutor oldBridgePool = bridgePool;
+        sourcePool = null;
+        lookupPool = null;
+        bridgePool = null;
+        AbstractSourceAPI.setBridgePool(null);
+
+        if(oldLookupPool != null) {
+            oldLookupPool.shutdownNow();
+        }
+        if(oldSourcePool != null) {
+            oldSourcePool.shutdownNow();
+        }
+        if(oldBridgePool != null) {
+            oldBridgePool.shutdownNow();
+        }
+        SourceHttpClient.close();
+
+        IPv4BlockTable oldBlockTable = blockTable;
+        blockTable = null;
+        if(oldBlockTable != null) {
+            oldBlockTable.close();
+        }
+
+        OffHeapVerdictCache oldVerdictCache = verdictCache;
+        verdictCache = null;
+        if(oldVerdictCache != null) {
+            oldVerdictCache.close();
+        }
+    }
+
+    private static void reloadBlockTable(CachedConfigValues cachedConfig) {
+        IPv4BlockTable oldBlockTable = blockTable;
+        if(!cachedConfig.getAggregation() || !cachedConfig.getAggregationBlockTable() || cachedConfig.getAggregationIPv4Prefix() > 24) {
+            blockTable = null;
+            if(oldBlockTable != null) {
+                oldBlockTable.close();
+            }
+            return;
+        }
+
+        if(oldBlockTable != null && oldBlockTable.hasSettings(cachedConfig.getAggregationBlockTableFile(), cachedConfig.getSourceCacheTime(), cachedConfig.getAggregationBlockTableCleanTime())) {
+            return;
+        }
+        try {
+            blockTable = new IPv4BlockTable(cachedConfig.getAggregationBlockTableFile(), cachedConfig.getSourceCacheTime(), cachedConfig.getAggregationBlockTableCleanTime());
+        } catch(IOException ex) {
+            if(cachedConfig.getDebug()) {
+                logger.error("Could not create block table. Continuing without it.", ex);
+            } else {
+                logger.error("Could not create block table. Continuing without it: " + ex.getMessage());
+            }
+            blockTable = null;
+        }
+        if(oldBlockTable != null) {
+            oldBlockTable.close();
+        }
+    }
+
+    private static void reloadVerdictCache(CachedConfigValues cachedConfig) {
+        OffHeapVerdictCache oldVerdictCache = verdictCache;
+        if(!cachedConfig.getOffHeapCache()) {
+            verdictCache = null;
+            if(oldVerdictCache != null) {
+                oldVerdictCache.close();
+            }
+            return;
+        }
+
+        if(oldVerdictCache != null && oldVerdictCache.hasSettings(cachedConfig.getOffHeapCacheFile(), cachedConfig.getOffHeapCacheSize(), cachedConfig.getSourceCacheTime())) {
+            return;
+        }
+        try {
+            verdictCache = new OffHeapVerdictCache(cachedConfig.getOffHeapCacheFile(), cachedConfig.getOffHeapCacheSize(), cachedConfig.getSourceCacheTime());
+        } catch(IOException ex) {
+            if(cachedConfig.getDebug()) {
+                logger.error("Could not create off-heap cache. Continuing without it.", ex);
+            } else {
+                logger.error("Could not create off-heap cache. Continuing without it: " + ex.getMessage());
+            }
+            verdictCache = null;
+        }
+        if(oldVerdictCache != null) {
+            oldVerdictCache.close();
+        }
+    }
+
+    private static IPv4BlockTable.Result getBlockTableResult(IPKey ip) {
+        IPv4BlockTable table = blockTable;
+        if(table == null || !ip.isIPv4()) {
+            return IPv4BlockTable.Result.UNKNOWN;
+        }
+
+        IPv4BlockTable.Result retVal = table.getResult(ip.getIPv4());
+        if(ConfigUtil.getDebugOrFalse() && (retVal == IPv4BlockTable.Result.VPN || retVal == IPv4BlockTable.Result.CLEAN)) {
+            logger.info("Got VPN result from block table: " + ip + " = " + retVal);
+        }
+        return retVal;
+    }
+
+    private static void recordBlock(PrefixAggregator aggregator, IPKey ip, double value, boolean vpn) {
+        IPv4BlockTable table = blockTable;
+        if(vpn) {
+            aggregator.flag(ip, value);
+        } else if(table != null) {
+            // Clean results only matter once they can be promoted into the table
+            aggregator.pass(ip);
+        }
+        if(table == null || !ip.isIPv4()) {
+            return;
+        }
+
+        // Only blocks the aggregator is sure about make it into the table
+        if(vpn && aggregator.getBlockResult(ip).isPresent()) {
+            table.record(ip.getIPv4(), aggregator.getIPv4Prefix(), true);
+        } else if(!vpn && aggregator.isBlockClean(ip)) {
+            table.record(ip.getIPv4(), aggregator.getIPv4Prefix(), false);
+        }
+    }
+
+    private static void saveCaches(CachedConfigValues cachedConfig) {
+        AsyncLoadingCache<IPKey, Boolean> cascade = cascadeCache;
+        AsyncLoadingCache<IPKey, Double> consensus = consensusCache;
+        if(cachedConfig.getCacheFile() == null || cascade == null || consensus == null) {
+            return;
+        }
+
+        try {
+            int saved = CacheSnapshot.save(cachedConfig.getCacheFile(), cascade.synchronous(), consensus.synchronous());
+            if(cachedConfig.getDebug()) {
+                logger.info("Saved " + saved + " cached results to " + cachedConfig.getCacheFile().getName() + ".");
+            }
+        } catch(IOException ex) {
+            if(cachedConfig.getDebug()) {
+                logger.error("Could not save cached results.", ex);
+            } else {
+                logger.error("Could not save cached results: " + ex.getMessage());
+            }
+        }
+    }
+
+    private static void loadCaches(CachedConfigValues cachedConfig) {
+        if(cachedConfig.getCacheFile() == null) {
+            return;
+        }
+
+        try {
+            int loaded = CacheSnapshot.load(cachedConfig.getCacheFile(), cascadeCache.synchronous(), consensusCache.synchronous(), cachedConfig.getCacheTime().getMillis());
+            if(cachedConfig.getDebug()) {
+                logger.info("Loaded " + loaded + " cached results from " + cachedConfig.getCacheFile().getName() + ".");
+            }
+        } catch(IOException ex) {
+            if(cachedConfig.getDebug()) {
+                logger.error("Could not load cached results.", ex);
+            } else {
+                logger.error("Could not load cached results: " + ex.getMessage());
+            }
+        }
+    }
+
+    private static void preloadCaches(CachedConfigValues cachedConfig) {
+        if(!cachedConfig.getPreload() || cachedConfig.getStorage().isEmpty()) {
+            return;
+        }
+
+        AsyncLoadingCache<IPKey, Boolean> cascade = cascadeCache;
+        AsyncLoadingCache<IPKey, Double> consensus = consensusCache;
+        Thread thread = new ThreadFactoryBuilder().setNameFormat("AntiVPN-Preload").setDaemon(true).build().newThread(() -> preload(cachedConfig, cascade, consensus));
+        thread.start();
+    }
+
+    private static void preload(CachedConfigValues cachedConfig, AsyncLoadingCache<IPKey, Boolean> cascade, AsyncLoadingCache<IPKey, Double> consensus) {
+        Storage storage = cachedConfig.getStorage().get(0);
+        long maxAge = Math.min(cachedConfig.getPreloadMaxAge(), cachedConfig.getSourceCacheTime());
+
+        long beforeID = Long.MAX_VALUE;
+        int read = 0;
+        int loaded = 0;
+        // Stop early if a reload replaced the caches part-way through
+        while(read < cachedConfig.getPreloadMaxResults() && cascadeCache == cascade) {
+            Set<VPNResult> page;
+            try {
+                page = storage.getRecentVPN(beforeID, maxAge, Math.min(PRELOAD_PAGE_SIZE, cachedConfig.getPreloadMaxResults() - read));
+            } catch(StorageException ex) {
+                if(cachedConfig.getDebug()) {
+                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
+                } else {
+                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
+                }
+                break;
+            }
+            if(page.isEmpty()) {
+                break;
+            }
+
+            for(VPNResult result : page) {
+                beforeID = Math.min(beforeID, result.getID());
+                read++;
+                // Pages are newest first, so anything already cached is at least as recent
+                if(cacheResult(result.getIP(), result.getCascade(), result.getConsensus(), result.getCreated(), cachedConfig, cascade, consensus, false)) {
+                    loaded++;
+                }
+            }
+        }
+
+        if(cachedConfig.getDebug()) {
+            logger.info("Preloaded " + loaded + " results from " + storage.getClass().getSimpleName() + ".");
+        }
+    }
+
+    /**
+     * Adds a result from elsewhere (eg. another proxy) to the in-memory caches, replacing anything already cached for the IP
+     * The result is cached for the same time it would be if it had been read from storage
+     *
+     * @param ip The IP
+     * @param cascade The cascade result, if any
+     * @param consensus The consensus result, if any
+     * @param created When the result was created, in epoch millis
+     */
+    public static void cacheResult(IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) {
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        AsyncLoadingCache<IPKey, Boolean> currentCascadeCache = cascadeCache;
+        AsyncLoadingCache<IPKey, Double> currentConsensusCache = consensusCache;
+        if(!cachedConfig.isPresent() || currentCascadeCache == null || currentConsensusCache == null) {
+            return;
+        }
+
+        if(cacheResult(ip, cascade, consensus, created, cachedConfig.get(), currentCascadeCache, currentConsensusCache, true) && cachedConfig.get().getDebug()) {
+            logger.info("Cached remote VPN result: " + ip + " = " + cascade.orElse(null) + ", " + consensus.orElse(null));
+        }
+    }
+
+    private static boolean cacheResult(IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created, CachedConfigValues cachedConfig, AsyncLoadingCache<IPKey, Boolean> cascadeTarget, AsyncLoadingCache<IPKey, Double> consensusTarget, boolean replace) {
+        long remaining = Math.min(created + cachedConfig.getSourceCacheTime() - System.currentTimeMillis(), cachedConfig.getCacheTime().getMillis());
+        if(remaining <= 0L) {
+            return false;
+        }
+
+        boolean inserted = false;
+        if(cascade.isPresent()) {
+            IPKey key = getLookupKey(cascadePrefixes, ip);
+            Policy.VarExpiration<IPKey, Boolean> expiration = cascadeTarget.synchronous().policy().expireVariably().get();
+            if(replace) {
+                expiration.put(key, cascade.get(), remaining, TimeUnit.MILLISECONDS);
+                inserted = true;
+            } else {
+                inserted = expiration.putIfAbsent(key, cascade.get(), remaining, TimeUnit.MILLISECONDS);
+            }
+        }
+        if(consensus.isPresent()) {
+            IPKey key = getLookupKey(consensusPrefixes, ip);
+            Policy.VarExpiration<IPKey, Double> expiration = consensusTarget.synchronous().policy().expireVariably().get();
+            if(replace) {
+                expiration.put(key, consensus.get(), remaining, TimeUnit.MILLISECONDS);
+                inserted = true;
+            } else {
+                inserted |= expiration.putIfAbsent(key, consensus.get(), remaining, TimeUnit.MILLISECONDS);
+            }
+        }
+        if(!inserted) {
+            // Something newer is already cached locally, so the off-heap cache likely has it too
+            return false;
+        }
+
+        OffHeapVerdictCache offHeapCache = verdictCache;
+        if(offHeapCache != null) {
+            // Never lets an older result replace a newer one
+            offHeapCache.put(ip, cascade, consensus, created);
+        }
+        return true;
+    }
+
+    private static <V> Expiry<IPKey, V> expireAfterWrite(long millis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        return new Expiry<IPKey, V>() {
+            public long expireAfterCreate(IPKey key, V value, long currentTime) {
+                return nanos;
+            }
+
+            public long expireAfterUpdate(IPKey key, V value, long currentTime, long currentDuration) {
+                return nanos;
+            }
+
+            public long expireAfterRead(IPKey key, V value, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+        };
+    }
+
+    private static PrefixAggregator createAggregator(CachedConfigValues cachedConfig) {
+        return new PrefixAggregator(
+                cachedConfig.getAggregationIPv4Prefix(),
+                cachedConfig.getAggregationIPv6Prefix(),
+                cachedConfig.getAggregationMinFlagged(),
+                cachedConfig.getCacheTime().getMillis()
+        );
+    }
+
+    private static ThreadPoolExecutor createPool(String nameFormat, int threads) {
+        ThreadPoolExecutor retVal = new ThreadPoolExecutor(
+                threads,
+                threads,
+                30L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build()
+        );
+        retVal.allowCoreThreadTimeOut(true);
+        return retVal;
+    }
+
+    /**
+     * Removes every result for an IP or range from this proxy's caches, from storage, and from every other proxy through messaging
+     *
+     * @param range An IP, a CIDR range (eg. 1.2.3.0/24) or an IP range (eg. 1.2.3.4-9)
+     * @return The number of results deleted from storage
+     * @throws APIException if the range was invalid, or if the results could not be deleted from any storage
+     */
+    public long forget(String range) throws APIException {
+        if(range == null) {
+            throw new APIException(false, "range cannot be null.");
+        }
+        if(!ValidationUtil.isValidIp(range) && !ValidationUtil.isValidIPRange(range)) {
+            throw new APIException(false, "range is invalid.");
+        }
+
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if(!cachedConfig.isPresent()) {
+            throw new APIException(false, "Could not get cached config.");
+        }
+
+        StorageMessagingHandler handler;
+        try {
+            handler = ServiceLocator.get(StorageMessagingHandler.class);
+        } catch(InstantiationException | IllegalAccessException | ServiceNotFoundException ex) {
+            throw new APIException(false, "Could not get handler service.");
+        }
+
+        IPAddress address;
+        try {
+            address = new IPAddressString(range).toAddress();
+        } catch(AddressStringException ex) {
+            throw new APIException(false, "range is invalid.", ex);
+        }
+        if(address.isPrefixed()) {
+            // 1.2.3.4/24 means the whole /24 here
+            address = address.toPrefixBlock();
+        }
+
+        long retVal = 0L;
+        for(IPAddress block : address.isMultiple() ? address.spanWithPrefixBlocks() : new IPAddress[] { address }) {
+            Integer blockPrefix = block.getPrefixLength();
+            int prefixLength = blockPrefix == null ? block.getBitCount() : blockPrefix;
+            IPKey network = IPKey.of(block.getLower().withoutPrefixLength().getBytes());
+            if(network.isIPv4() && !block.isIPv4()) {
+                // IPv4-mapped, keys treat these as plain IPv4
+                prefixLength = Math.max(0, prefixLength - 96);
+            }
+
+            if(cachedConfig.get().getDebug()) {
+                logger.info("Forgetting VPN results for " + network + "/" + prefixLength);
+                logger.info("Propagating to storage & messaging");
+            }
+
+            invalidate(network, prefixLength);
+
+            // Storages may be shared, so take the largest count rather than adding them up
+            long deleted = -1L;
+            boolean canRecover = false;
+            for(Storage s : cachedConfig.get().getStorage()) {
+                try {
+                    deleted = Math.max(deleted, s.deleteVPN(network, prefixLength));
+                } catch(StorageException ex) {
+                    if(cachedConfig.get().getDebug()) {
+                        logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
+                    } else {
+                        logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
+                    }
+                    if(ex.isAutomaticallyRecoverable()) {
+                        canRecover = true;
+                    }
+                }
+            }
+            if(deleted < 0L && !cachedConfig.get().getStorage().isEmpty()) {
+                throw new APIException(!canRecover, "Could not delete VPN from storage.");
+            }
+            retVal += Math.max(0L, deleted);
+
+            if(cachedConfig.get().getMessaging().size() > 0) {
+                boolean handled = false;
+                canRecover = false;
+                UUID messageID = UUID.randomUUID();
+                handler.cacheMessage(messageID);
+                for(Messaging m : cachedConfig.get().getMessaging()) {
+                    try {
+                        m.sendInvalidate(messageID, network, prefixLength);
+                        handled = true;
+                    } catch(MessagingException ex) {
+                        if(cachedConfig.get().getDebug()) {
+                            logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
+                        } else {
+                            logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
+                        }
+                        if(ex.isAutomaticallyRecoverable()) {
+                            canRecover = true;
+                        }
+                    }
+                }
+
+                if(!handled) {
+                    throw new APIException(!canRecover, "Could not send VPN invalidation through messaging.");
+                }
+                numSentMessages.getAndIncrement();
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Drops every result for a range from this proxy's caches only, without touching storage or other proxies
+     *
+     * @param network Any address in the range
+     * @param prefixLength The range's prefix length
+     */
+    public static void invalidate(IPKey network, int prefixLength) {
+        invalidate(cascadeCache, cascadePrefixes, network, prefixLength);
+        invalidate(consensusCache, consensusPrefixes, network, prefixLength);
+
+        OffHeapVerdictCache offHeapCache = verdictCache;
+        if(offHeapCache != null) {
+            offHeapCache.invalidate(network, prefixLength);
+        }
+        IPv4BlockTable table = blockTable;
+        if(table != null && network.isIPv4()) {
+            table.forget(network.getIPv4(), prefixLength);
+        }
+    }
+
+    private static <V> void invalidate(AsyncLoadingCache<IPKey, V> cache, PrefixAggregator aggregator, IPKey network, int prefixLength) {
+        if(aggregator != null) {
+            aggregator.forget(network, prefixLength);
+        }
+        if(cache == null) {
+            return;
+        }
+
+        // With aggregation, IPv6 results are cached by block, so drop any block that overlaps the range
+        int ipv6KeyPrefix = aggregator != null ? aggregator.getIPv6Prefix() : 128;
+        cache.synchronous().asMap().keySet().removeIf(k -> k.isIn(network, Math.min(prefixLength, k.isIPv4() ? 32 : ipv6KeyPrefix)));
     }
 
     public Map<String, Optional<Boolean>> testAllSources(String ip) throws APIException {
@@ -80,17 +633,23 @@ public class VPNAPI {
             throw new APIException(false, "Could not get cached config.");
         }
 
-        ExecutorService threadPool = Executors.newWorkStealingPool(cachedConfig.get().getThreads());
+        ExecutorService threadPool = sourcePool;
+        if(threadPool == null) {
+            throw new APIException(false, "API not yet initialized.");
+        }
+
+        String normalizedIp = IPKey.of(ip).toString();
         CountDownLatch latch = new CountDownLatch(cachedConfig.get().getSources().size());
+        List<Future<?>> futures = new ArrayList<>();
         Map<String, Optional<Boolean>> retVal;
         ConcurrentMap<String, Optional<Boolean>> results = new ConcurrentHashMap<>();
         for(Map.Entry<String, SourceAPI> kvp : cachedConfig.get().getSources().entrySet()) {
-            threadPool.submit(() -> {
+            submit(threadPool, futures, latch, () -> {
                 if(cachedConfig.get().getDebug()) {
                     logger.info("Getting VPN result from " + kvp.getKey());
                 }
                 try {
-                    results.put(kvp.getKey(), Optional.of(kvp.getValue().getResult(ip)));
+                    results.put(kvp.getKey(), Optional.of(querySource(kvp.getKey(), kvp.getValue(), normalizedIp)));
                 } catch(APIException ex) {
                     if(cachedConfig.get().getDebug()) {
                         logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
@@ -99,7 +658,6 @@ public class VPNAPI {
                     }
                     results.put(kvp.getKey(), Optional.empty());
                 }
-                latch.countDown();
             });
         }
 
@@ -115,7 +673,9 @@ public class VPNAPI {
             }
             Thread.currentThread().interrupt();
         }
-        threadPool.shutdownNow(); // Kill it with fire
+        for(Future<?> future : futures) {
+            future.cancel(true); // Kill it with fire
+        }
 
         // Re-order sources
         retVal = new LinkedHashMap<>();
@@ -142,56 +702,111 @@ public class VPNAPI {
             throw new APIException(false, "Could not get cached config.");
         }
 
-        SourceAPI source = null;
         for(Map.Entry<String, SourceAPI> kvp : cachedConfig.get().getSources().entrySet()) {
             if(sourceName.equalsIgnoreCase(kvp.getKey())) {
-                source = kvp.getValue();
-                break;
+                return querySource(kvp.getKey(), kvp.getValue(), IPKey.of(ip).toString());
             }
         }
-        if(source == null) {
-            throw new APIException(false, "Could not get source from name provided.");
-        }
-
-        return source.getResult(ip);
+        throw new APIException(false, "Could not get source from name provided.");
     }
 
     public boolean cascade(String ip) throws APIException {
+        return getResult(cascadeAsync(ip));
+    }
+
+    public CompletableFuture<Boolean> cascadeAsync(String ip) {
         if(ip == null) {
-            throw new APIException(false, "ip cannot be null.");
+            return failedFuture(new APIException(false, "ip cannot be null."));
         }
         if(!ValidationUtil.isValidIp(ip)) {
-            throw new APIException(false, "ip is invalid.");
+            return failedFuture(new APIException(false, "ip is invalid."));
         }
 
         if(cascadeCache == null) {
-            throw new APIException(false, "API not yet initialized.");
+            return failedFuture(new APIException(false, "API not yet initialized."));
         }
 
-        Boolean value = cascadeCache.get(ip);
-        if(value == null) {
-            throw new APIException(false, "Could not get VPN result.");
+        IPKey clientKey = IPKey.of(ip);
+        IPKey key = clientKey;
+        IPv4BlockTable.Result tableResult = getBlockTableResult(key);
+        // The table only answers clean when "block-table.clean-time" is set
+        if(tableResult == IPv4BlockTable.Result.VPN || tableResult == IPv4BlockTable.Result.CLEAN) {
+            return CompletableFuture.completedFuture(tableResult == IPv4BlockTable.Result.VPN);
         }
-        return value;
+
+        PrefixAggregator aggregator = cascadePrefixes;
+        if(aggregator != null) {
+            key = aggregator.getLookupKey(key);
+            if(aggregator.getBlockResult(key).isPresent()) {
+                if(ConfigUtil.getDebugOrFalse()) {
+                    logger.info(ip + " is in a block with multiple VPN results, skipping lookup.");
+                }
+                return CompletableFuture.completedFuture(Boolean.TRUE);
+            }
+        }
+
+        // The cache key may be the client's whole IPv6 block, but the sources and Storage get the client's own address
+        IPKey lookupKey = key;
+        return cascadeCache.get(lookupKey, (k, executor) -> loadAsync(() -> cascadeExpensive(clientKey), executor)).thenApply(value -> {
+            if(value == null) {
+                throw new CompletionException(new APIException(false, "Could not get VPN result."));
+            }
+            if(aggregator != null) {
+                recordBlock(aggregator, lookupKey, value ? 1.0d : 0.0d, value);
+            }
+            return value;
+        });
     }
 
     public double consensus(String ip) throws APIException {
+        return getResult(consensusAsync(ip));
+    }
+
+    public CompletableFuture<Double> consensusAsync(String ip) {
         if(ip == null) {
-            throw new APIException(false, "ip cannot be null.");
+            return failedFuture(new APIException(false, "ip cannot be null."));
         }
         if(!ValidationUtil.isValidIp(ip)) {
-            throw new APIException(false, "ip is invalid.");
+            return failedFuture(new APIException(false, "ip is invalid."));
         }
 
         if(consensusCache == null) {
-            throw new APIException(false, "API not yet initialized.");
+            return failedFuture(new APIException(false, "API not yet initialized."));
         }
 
-        Double value = consensusCache.get(ip);
-        if(value == null) {
-            throw new APIException(false, "Could not get VPN result.");
+        IPKey clientKey = IPKey.of(ip);
+        IPKey key = clientKey;
+        IPv4BlockTable.Result tableResult = getBlockTableResult(key);
+        // The table only answers clean when "block-table.clean-time" is set
+        if(tableResult == IPv4BlockTable.Result.VPN || tableResult == IPv4BlockTable.Result.CLEAN) {
+            return CompletableFuture.completedFuture(tableResult == IPv4BlockTable.Result.VPN ? 1.0d : 0.0d);
         }
-        return value;
+
+        PrefixAggregator aggregator = consensusPrefixes;
+        if(aggregator != null) {
+            key = aggregator.getLookupKey(key);
+            Optional<Double> blockResult = aggregator.getBlockResult(key);
+            if(blockResult.isPresent()) {
+                if(ConfigUtil.getDebugOrFalse()) {
+                    logger.info(ip + " is in a block with multiple VPN results, skipping lookup.");
+                }
+                return CompletableFuture.completedFuture(blockResult.get());
+            }
+        }
+
+        IPKey lookupKey = key;
+        return consensusCache.get(lookupKey, (k, executor) -> loadAsync(() -> consensusExpensive(clientKey), executor)).thenApply(value -> {
+            if(value == null) {
+                throw new CompletionException(new APIException(false, "Could not get VPN result."));
+            }
+            if(aggregator != null) {
+                Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+                if(cachedConfig.isPresent()) {
+                    recordBlock(aggregator, lookupKey, value, value >= cachedConfig.get().getVPNAlgorithmConsensus());
+                }
+            }
+            return value;
+        });
     }
 
     public long getNumSentMessages() throws APIException {
@@ -209,76 +824,549 @@ public class VPNAPI {
         return handler.numReceivedMessages();
     }
 
-    private static boolean cascadeExpensive(String ip) throws APIException {
+    public CircuitBreaker.State getSourceState(String sourceName) {
+        CircuitBreaker breaker = circuitBreakers.get(sourceName);
+        return breaker == null ? CircuitBreaker.State.CLOSED : breaker.getState();
+    }
+
+    public int getSourceQueueSize() {
+        ThreadPoolExecutor pool = sourcePool;
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public int getActiveSourceThreads() {
+        ThreadPoolExecutor pool = sourcePool;
+        return pool == null ? 0 : pool.getActiveCount();
+    }
+
+    public int getHttpConnectionCount() {
+        return SourceHttpClient.getConnectionCount();
+    }
+
+    public int getIdleHttpConnectionCount() {
+        return SourceHttpClient.getIdleConnectionCount();
+    }
+
+    /**
+     * Runs blocking work on the lookup pool, for callers which need to do some before a lookup without holding their own thread
+     *
+     * @param supplier The work to run
+     * @return A future completing with the work's result
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        ThreadPoolExecutor pool = lookupPool;
+        if(pool == null) {
+            return failedFuture(new APIException(false, "API not yet initialized."));
+        }
+        try {
+            return CompletableFuture.supplyAsync(supplier, pool);
+        } catch(RejectedExecutionException ex) {
+            return failedFuture(new APIException(false, "Lookup pool is shutting down.", ex));
+        }
+    }
+
+    public int getLookupQueueSize() {
+        ThreadPoolExecutor pool = lookupPool;
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public int getActiveLookupThreads() {
+        ThreadPoolExecutor pool = lookupPool;
+        return pool == null ? 0 : pool.getActiveCount();
+    }
+
+    /**
+     * Unwraps the exception a lookup future completed with
+     *
+     * @param ex The exception the future completed with
+     * @return The underlying APIException, or a new "hard" APIException wrapping any other failure
+     */
+    public static APIException getAPIException(Throwable ex) {
+        while((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        if(ex instanceof APIException) {
+            return (APIException) ex;
+        }
+        return new APIException(true, ex);
+    }
+
+    private static <T> T getResult(CompletableFuture<T> future) throws APIException {
+        try {
+            return future.get();
+        } catch(ExecutionException ex) {
+            throw getAPIException(ex);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new APIException(false, ex);
+        }
+    }
+
+    /**
+     * Whether or not the outstanding sources can still change which side of the threshold the ratio lands on
+     * Worst case for a VPN verdict is every outstanding source answering "no", best case is every one answering "yes"
+     */
+    private static boolean isConsensusDecided(int positive, int success, int remaining, double threshold) {
+        if(success == 0) {
+            return false;
+        }
+        if((double) positive / (double) (success + remaining) >= threshold) {
+            return true;
+        }
+        return (double) (positive + remaining) / (double) (success + remaining) < threshold;
+    }
+
+    private static boolean querySource(String name, SourceAPI source, String ip) throws APIException {
+        return inFlightRequests.get("source:" + name + ":" + ip, () -> {
+            CircuitBreaker breaker = getCircuitBreaker(name);
+            long start = System.nanoTime();
+            boolean success = false;
+            boolean cancelled = false;
+            try {
+                boolean retVal = awaitSource(name, source.getResultAsync(ip));
+                success = true;
+                if(breaker != null) {
+                    breaker.onSuccess();
+                }
+                return retVal;
+            } catch(APIException ex) {
+                // Refused by our own rate limit, or abandoned; neither is the source's fault
+                cancelled = ex instanceof RateLimitException || Thread.currentThread().isInterrupted() || ex.getCause() instanceof InterruptedException;
+                if(breaker != null) {
+                    if(cancelled) {
+                        breaker.onCancel();
+                    } else if(breaker.onFailure()) {
+                        logger.warn(name + " tripped its circuit breaker. Skipping source for a while.");
+                    }
+                }
+                throw ex;
+            } catch(RuntimeException | Error ex) {
+                // Every acquire needs an outcome, or a half-open breaker waits on its probe forever
+                if(breaker != null && breaker.onFailure()) {
+                    logger.warn(name + " tripped its circuit breaker. Skipping source for a while.");
+                }
+                throw ex;
+            } finally {
+                if(!cancelled) {
+                    sourceMetrics.record(name, System.nanoTime() - start, success);
+                }
+            }
+        }, ex -> new APIException(false, "Lookup from " + name + " was abandoned.", ex));
+    }
+
+    /**
+     * Waits on a source's lookup, cancelling it if this thread is interrupted
+     * Consensus, hedging, and timeouts interrupt lookups they no longer need, which now stops the request itself
+     * rather than leaving the thread stuck until the socket times out
+     */
+    private static boolean awaitSource(String name, CompletableFuture<Boolean> future) throws APIException {
+        try {
+            return future.get();
+        } catch(InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new APIException(false, "Lookup from " + name + " was abandoned.", ex);
+        } catch(CancellationException ex) {
+            throw new APIException(false, "Lookup from " + name + " was cancelled.", ex);
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof APIException) {
+                throw (APIException) ex.getCause();
+            }
+            if(ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            // Eg. an unexpected payload from the source, which shouldn't stop the remaining sources being asked
+            throw new APIException(false, "Could not get result from " + name + ".", ex.getCause());
+        }
+    }
+
+    private static CircuitBreaker getCircuitBreaker(String name) {
         Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
         if(!cachedConfig.isPresent()) {
-            throw new APIException(false, "Could not get cached config.");
+            return null;
         }
 
-        VPNResult result = null;
-        for(Storage s : cachedConfig.get().getStorage()) {
-            if(cachedConfig.get().getDebug()) {
-                logger.info("Getting VPN result from " + s.getClass().getSimpleName());
+        return circuitBreakers.computeIfAbsent(name, k -> new CircuitBreaker(
+                cachedConfig.get().getCircuitBreakerWindow(),
+                cachedConfig.get().getCircuitBreakerMinCalls(),
+                cachedConfig.get().getCircuitBreakerErrorRate(),
+                cachedConfig.get().getCircuitBreakerBackoff().getMillis(),
+                cachedConfig.get().getCircuitBreakerMaxBackoff().getMillis()
+        ));
+    }
+
+    private static Optional<Boolean> trySource(Map.Entry<String, SourceAPI> kvp, IPKey ip, CachedConfigValues cachedConfig, AtomicBoolean isHard) {
+        if(kvp.getValue().isThrottled()) {
+            if(cachedConfig.getDebug()) {
+                logger.info("Skipping " + kvp.getKey() + " due to its rate limit.");
             }
-            try {
-                result = s.getVPNByIP(ip, cachedConfig.get().getSourceCacheTime());
-                break;
-            } catch(StorageException ex) {
-                if(cachedConfig.get().getDebug()) {
-                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
-                } else {
-                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
-                }
+            return Optional.empty();
+        }
+        CircuitBreaker breaker = getCircuitBreaker(kvp.getKey());
+        if(breaker != null && !breaker.tryAcquire()) {
+            if(cachedConfig.getDebug()) {
+                logger.info("Skipping " + kvp.getKey() + " due to recently bad/failed results.");
             }
+            return Optional.empty();
         }
-        if(result != null && result.getCascade().isPresent()) {
-            if(cachedConfig.get().getDebug()) {
-                logger.info("Got VPN result: " + ip + " = " + result.getCascade().get());
+        if(cachedConfig.getDebug()) {
+            logger.info("Getting VPN result from " + kvp.getKey());
+        }
+        try {
+            boolean retVal = querySource(kvp.getKey(), kvp.getValue(), ip.toString());
+            if(cachedConfig.getDebug()) {
+                logger.info(kvp.getKey() + " returned " + retVal + " for " + ip);
             }
-            return result.getCascade().get();
+            return Optional.of(retVal);
+        } catch(APIException ex) {
+            if(Thread.currentThread().isInterrupted()) {
+                // Cancelled because the result was already decided, not the source's fault
+                return Optional.empty();
+            }
+            if(ex instanceof RateLimitException) {
+                // Another lookup took the last token between the check above and the call
+                if(cachedConfig.getDebug()) {
+                    logger.info("Skipping " + kvp.getKey() + " due to its rate limit.");
+                }
+                return Optional.empty();
+            }
+
+            if(cachedConfig.getDebug()) {
+                logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
+            } else {
+                logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage());
+            }
+            if(!ex.isHard()) {
+                isHard.set(false);
+            }
+            return Optional.empty();
         }
+    }
 
-        Optional<Boolean> r = Optional.empty();
-        boolean isHard = true;
-        for(Map.Entry<String, SourceAPI> kvp : cachedConfig.get().getSources().entrySet()) {
-            if(!sourceValidationCache.get(kvp.getKey())) {
-                if(cachedConfig.get().getDebug()) {
-                    logger.info("Skipping " + kvp.getKey() + " due to recently bad/failed result.");
+    /**
+     * Cascade which starts the next source in parallel whenever the newest one is slower than its hedge delay
+     * The first valid answer from any started source wins
+     */
+    private static Optional<Boolean> hedgedCascade(IPKey ip, CachedConfigValues cachedConfig, AtomicBoolean isHard) throws APIException {
+        ExecutorService threadPool = sourcePool;
+        if(threadPool == null) {
+            throw new APIException(false, "API not yet initialized.");
+        }
+
+        List<Map.Entry<String, SourceAPI>> candidates = new ArrayList<>();
+        for(Map.Entry<String, SourceAPI> kvp : getCascadeOrder(cachedConfig)) {
+            if(kvp.getValue().isThrottled()) {
+                if(cachedConfig.getDebug()) {
+                    logger.info("Skipping " + kvp.getKey() + " due to its rate limit.");
                 }
                 continue;
             }
-            if(cachedConfig.get().getDebug()) {
-                logger.info("Getting VPN result from " + kvp.getKey());
+            CircuitBreaker breaker = getCircuitBreaker(kvp.getKey());
+            if(breaker != null && !breaker.isCallPermitted()) {
+                if(cachedConfig.getDebug()) {
+                    logger.info("Skipping " + kvp.getKey() + " due to recently bad/failed results.");
+                }
+                continue;
             }
-            try {
-                r = Optional.of(kvp.getValue().getResult(ip));
-                if(cachedConfig.get().getDebug()) {
-                    logger.info(kvp.getKey() + " returned " + r.get() + " for " + ip);
+            candidates.add(kvp);
+        }
+
+        ExecutorCompletionService<Optional<Boolean>> completionService = new ExecutorCompletionService<>(threadPool);
+        List<Future<Optional<Boolean>>> futures = new ArrayList<>();
+        Optional<Boolean> retVal = Optional.empty();
+        int outstanding = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20L);
+        long newestStart = 0L;
+        boolean failed = false;
+        try {
+            while(futures.size() < candidates.size() || outstanding > 0) {
+                long now = System.nanoTime();
+                long wait = deadline - now;
+                if(wait <= 0L) {
+                    logger.warn("Timeout reached before all sources could be queried.");
+                    break;
                 }
-                break;
-            } catch(APIException ex) {
-                if(cachedConfig.get().getDebug()) {
-                    logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
-                } else {
-                    logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage());
+
+                boolean canStart = futures.size() < candidates.size();
+                if(outstanding > 0 && !(failed && canStart)) {
+                    if(canStart) {
+                        // The hedge delay runs from when the newest source started, not from the last completion
+                        long hedgeAt = newestStart + TimeUnit.MILLISECONDS.toNanos(getHedgeDelay(candidates.get(futures.size() - 1).getKey(), cachedConfig));
+                        wait = Math.min(wait, hedgeAt - now);
+                    }
+
+                    Future<Optional<Boolean>> future = wait > 0L ? completionService.poll(wait, TimeUnit.NANOSECONDS) : completionService.poll();
+                    if(future != null) {
+                        outstanding--;
+                        try {
+                            retVal = future.get();
+                        } catch(ExecutionException ex) {
+                            if(cachedConfig.getDebug()) {
+                                logger.error(ex.getMessage(), ex);
+                            } else {
+                                logger.error(ex.getMessage());
+                            }
+                        }
+                        if(retVal.isPresent()) {
+                            break;
+                        }
+                        // Move on straight away rather than waiting out the rest of the hedge delay
+                        failed = true;
+                        continue;
+                    }
+                    if(!canStart) {
+                        continue;
+                    }
+                }
+
+                // Nothing running, a source failed, or the newest source is taking too long
+                Map.Entry<String, SourceAPI> kvp = candidates.get(futures.size());
+                if(cachedConfig.getDebug() && outstanding > 0 && !failed) {
+                    logger.info("Hedging slow cascade source with " + kvp.getKey());
+                }
+                failed = false;
+                try {
+                    futures.add(completionService.submit(() -> trySource(kvp, ip, cachedConfig, isHard)));
+                } catch(RejectedExecutionException ex) {
+                    logger.warn("Source pool is shutting down; skipping source query.");
+                    break;
+                }
+                newestStart = System.nanoTime();
+                outstanding++;
+            }
+        } catch(InterruptedException ex) {
+            if(cachedConfig.getDebug()) {
+                logger.error(ex.getMessage(), ex);
+            } else {
+                logger.error(ex.getMessage());
+            }
+            Thread.currentThread().interrupt();
+        }
+        for(Future<?> future : futures) {
+            future.cancel(true); // Kill it with fire
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Gets the sources in the order cascade should try them
+     * With adaptive ordering on, sources which aren't pinned are sorted by their recent time per valid answer,
+     * and sources without enough recent lookups to judge go first (in their configured order) so they get some
+     *
+     * @param cachedConfig The cached config
+     * @return The sources, in order
+     */
+    private static List<Map.Entry<String, SourceAPI>> getCascadeOrder(CachedConfigValues cachedConfig) {
+        List<Map.Entry<String, SourceAPI>> configured = new ArrayList<>(cachedConfig.getSources().entrySet());
+        if(!cachedConfig.getVPNAlgorithmAdaptive()) {
+            return configured;
+        }
+
+        Set<String> pinned = cachedConfig.getVPNAlgorithmAdaptivePinned();
+        List<Map.Entry<String, SourceAPI>> adaptive = new ArrayList<>();
+        Map<String, Double> scores = new HashMap<>();
+        for(Map.Entry<String, SourceAPI> kvp : configured) {
+            if(!pinned.contains(kvp.getKey())) {
+                adaptive.add(kvp);
+                scores.put(kvp.getKey(), sourceMetrics.getTimePerValidAnswer(kvp.getKey(), ADAPTIVE_MIN_SAMPLES, ADAPTIVE_MAX_AGE));
+            }
+        }
+        // Stable, so ties (and sources without a score) keep their configured order
+        adaptive.sort(Comparator.comparingDouble(kvp -> scores.get(kvp.getKey())));
+
+        List<Map.Entry<String, SourceAPI>> retVal = new ArrayList<>(configured.size());
+        Iterator<Map.Entry<String, SourceAPI>> i = adaptive.iterator();
+        for(Map.Entry<String, SourceAPI> kvp : configured) {
+            retVal.add(pinned.contains(kvp.getKey()) ? kvp : i.next());
+        }
+
+        if(cachedConfig.getDebug()) {
+            StringBuilder order = new StringBuilder();
+            for(Map.Entry<String, SourceAPI> kvp : retVal) {
+                if(order.length() > 0) {
+                    order.append(", ");
+                }
+                order.append(kvp.getKey());
+            }
+            logger.info("Adaptive cascade order: " + order);
+        }
+        return retVal;
+    }
+
+    private static long getHedgeDelay(String source, CachedConfigValues cachedConfig) {
+        if(cachedConfig.getVPNAlgorithmHedgeDelay() >= 0L) {
+            return cachedConfig.getVPNAlgorithmHedgeDelay();
+        }
+        long p90 = sourceMetrics.getLatencyPercentile(source, 0.9d, 10);
+        return p90 >= 0L ? p90 : DEFAULT_HEDGE_DELAY;
+    }
+
+    private static VPNResult getStoredResult(IPKey ip, CachedConfigValues cachedConfig) throws APIException {
+        return inFlightRequests.get("storage:" + ip, () -> {
+            for(Storage s : cachedConfig.getStorage()) {
+                if(cachedConfig.getDebug()) {
+                    logger.info("Getting VPN result from " + s.getClass().getSimpleName());
+                }
+                try {
+                    // Include the stale window; stale results are refreshed in the background by the caller
+                    return s.getVPNByIP(ip, cachedConfig.getSourceCacheTime() + cachedConfig.getSourceStaleTime());
+                } catch(StorageException ex) {
+                    if(cachedConfig.getDebug()) {
+                        logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
+                    } else {
+                        logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
+                    }
+                }
+            }
+            return null;
+        }, ex -> new APIException(false, "Storage lookup for " + ip + " was abandoned.", ex));
+    }
+
+    private static boolean isStale(VPNResult result, CachedConfigValues cachedConfig) {
+        return System.currentTimeMillis() - result.getCreated() > cachedConfig.getSourceCacheTime();
+    }
+
+    private static void refreshInBackground(IPKey ip, CachedConfigValues cachedConfig, boolean cascade) {
+        ExecutorService threadPool = lookupPool;
+        if(threadPool == null) {
+            return;
+        }
+
+        String key = (cascade ? "cascade:" : "consensus:") + ip;
+        if(!pendingRefreshes.add(key)) {
+            return;
+        }
+
+        if(cachedConfig.getDebug()) {
+            logger.info("Stored result for " + ip + " is stale, refreshing in the background.");
+        }
+        try {
+            threadPool.execute(() -> {
+                try {
+                    if(cascade) {
+                        boolean value = cascadeSources(ip, cachedConfig);
+                        AsyncLoadingCache<IPKey, Boolean> cache = cascadeCache;
+                        if(cache != null) {
+                            cache.put(getLookupKey(cascadePrefixes, ip), CompletableFuture.completedFuture(value));
+                        }
+                    } else {
+                        double value = consensusSources(ip, cachedConfig);
+                        AsyncLoadingCache<IPKey, Double> cache = consensusCache;
+                        if(cache != null) {
+                            cache.put(getLookupKey(consensusPrefixes, ip), CompletableFuture.completedFuture(value));
+                        }
+                    }
+                } catch(APIException ex) {
+                    if(cachedConfig.getDebug()) {
+                        logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
+                    } else {
+                        logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage());
+                    }
+                } finally {
+                    pendingRefreshes.remove(key);
                 }
-                if(!ex.isHard()) {
-                    isHard = false;
+            });
+        } catch(RejectedExecutionException ignored) {
+            pendingRefreshes.remove(key);
+        }
+    }
+
+    private static void submit(ExecutorService threadPool, List<Future<?>> futures, CountDownLatch latch, Runnable task) {
+        try {
+            futures.add(threadPool.submit(() -> {
+                try {
+                    task.run();
+                } finally {
+                    latch.countDown();
                 }
+            }));
+        } catch(RejectedExecutionException ex) {
+            logger.warn("Source pool is shutting down; skipping source query.");
+            latch.countDown();
+        }
+    }
+
+    private static IPKey getLookupKey(PrefixAggregator aggregator, IPKey ip) {
+        return aggregator != null ? aggregator.getLookupKey(ip) : ip;
+    }
+
+    private static IPKey getClientKey(PrefixAggregator aggregator, IPKey key) {
+        return aggregator != null ? aggregator.getClientKey(key) : key;
+    }
 
+    private static <T> CompletableFuture<T> loadAsync(Callable<T> loader, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loader.call();
+            } catch(RuntimeException ex) {
+                throw ex;
+            } catch(Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable ex) {
+        CompletableFuture<T> retVal = new CompletableFuture<>();
+        retVal.completeExceptionally(ex);
+        return retVal;
+    }
+
+    private static boolean cascadeExpensive(IPKey ip) throws APIException {
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if(!cachedConfig.isPresent()) {
+            throw new APIException(false, "Could not get cached config.");
+        }
+
+        OffHeapVerdictCache offHeapCache = verdictCache;
+        if(offHeapCache != null) {
+            Optional<Boolean> cached = offHeapCache.getCascade(ip);
+            if(cached.isPresent()) {
                 if(cachedConfig.get().getDebug()) {
-                    logger.info(kvp.getKey() + " returned a bad/failed result. Skipping source for a while.");
+                    logger.info("Got VPN result from off-heap cache: " + ip + " = " + cached.get());
+                }
+                return cached.get();
+            }
+        }
+
+        VPNResult result = getStoredResult(ip, cachedConfig.get());
+        if(result != null && result.getCascade().isPresent()) {
+            if(cachedConfig.get().getDebug()) {
+                logger.info("Got VPN result: " + ip + " = " + result.getCascade().get());
+            }
+            if(isStale(result, cachedConfig.get())) {
+                refreshInBackground(ip, cachedConfig.get(), true);
+            } else if(offHeapCache != null) {
+                offHeapCache.put(ip, result.getCascade(), Optional.empty(), result.getCreated());
+            }
+            return result.getCascade().get();
+        }
+
+        return cascadeSources(ip, cachedConfig.get());
+    }
+
+    private static boolean cascadeSources(IPKey ip, CachedConfigValues cachedConfig) throws APIException {
+
+        Optional<Boolean> r = Optional.empty();
+        AtomicBoolean isHard = new AtomicBoolean(true);
+        if(cachedConfig.getVPNAlgorithmHedge()) {
+            r = hedgedCascade(ip, cachedConfig, isHard);
+        } else {
+            for(Map.Entry<String, SourceAPI> kvp : getCascadeOrder(cachedConfig)) {
+                r = trySource(kvp, ip, cachedConfig, isHard);
+                if(r.isPresent()) {
+                    break;
                 }
-                sourceValidationCache.put(kvp.getKey(), Boolean.FALSE);
             }
         }
         if(!r.isPresent()) {
-            throw new APIException(isHard, "Cascade had no valid/usable sources.");
+            throw new APIException(isHard.get(), "Cascade had no valid/usable sources.");
         }
 
         boolean value = r.get();
 
-        if(cachedConfig.get().getDebug()) {
+        if(cachedConfig.getDebug()) {
             logger.info("Got VPN result: " + ip + " = " + value);
             logger.info("Propagating to storage & messaging");
         }
@@ -293,13 +1381,13 @@ public class VPNAPI {
         PostVPNResult postResult = null;
         Storage postedStorage = null;
         boolean canRecover = false;
-        for(Storage s : cachedConfig.get().getStorage()) {
+        for(Storage s : cachedConfig.getStorage()) {
             try {
                 postResult = s.postVPN(ip, value);
                 postedStorage = s;
                 break;
             } catch(StorageException ex) {
-                if(cachedConfig.get().getDebug()) {
+                if(cachedConfig.getDebug()) {
                     logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
                 } else {
                     logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
@@ -314,7 +1402,11 @@ public class VPNAPI {
         }
 
         handler.cacheVPNPost(postResult.getID());
-        for(Storage s : cachedConfig.get().getStorage()) {
+        OffHeapVerdictCache offHeapCache = verdictCache;
+        if(offHeapCache != null) {
+            offHeapCache.put(ip, postResult.getCascade(), postResult.getConsensus(), postResult.getCreated());
+        }
+        for(Storage s : cachedConfig.getStorage()) {
             try {
                 if(s == postedStorage) {
                     continue;
@@ -327,7 +1419,7 @@ public class VPNAPI {
                         postResult.getCreated()
                 );
             } catch(StorageException ex) {
-                if(cachedConfig.get().getDebug()) {
+                if(cachedConfig.getDebug()) {
                     logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
                 } else {
                     logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
@@ -336,11 +1428,11 @@ public class VPNAPI {
         }
 
         canRecover = false;
-        if(cachedConfig.get().getMessaging().size() > 0) {
+        if(cachedConfig.getMessaging().size() > 0) {
             boolean handled = false;
             UUID messageID = UUID.randomUUID();
             handler.cacheMessage(messageID);
-            for(Messaging m : cachedConfig.get().getMessaging()) {
+            for(Messaging m : cachedConfig.getMessaging()) {
                 try {
                     m.sendPostVPN(
                             messageID,
@@ -353,7 +1445,7 @@ public class VPNAPI {
                     );
                     handled = true;
                 } catch(MessagingException ex) {
-                    if(cachedConfig.get().getDebug()) {
+                    if(cachedConfig.getDebug()) {
                         logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
                     } else {
                         logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
@@ -373,99 +1465,132 @@ public class VPNAPI {
         return value;
     }
 
-    private static double consensusExpensive(String ip) throws APIException {
+    private static double consensusExpensive(IPKey ip) throws APIException {
         Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
         if(!cachedConfig.isPresent()) {
             throw new APIException(false, "Could not get cached config.");
         }
 
-        VPNResult result = null;
-        for(Storage s : cachedConfig.get().getStorage()) {
-            if(cachedConfig.get().getDebug()) {
-                logger.info("Getting VPN result from " + s.getClass().getSimpleName());
-            }
-            try {
-                result = s.getVPNByIP(ip, cachedConfig.get().getSourceCacheTime());
-                break;
-            } catch(StorageException ex) {
+        OffHeapVerdictCache offHeapCache = verdictCache;
+        if(offHeapCache != null) {
+            Optional<Double> cached = offHeapCache.getConsensus(ip);
+            if(cached.isPresent()) {
                 if(cachedConfig.get().getDebug()) {
-                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
-                } else {
-                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
+                    logger.info("Got VPN result from off-heap cache: " + ip + " = " + cached.get());
                 }
+                return cached.get();
             }
         }
+
+        VPNResult result = getStoredResult(ip, cachedConfig.get());
         if(result != null && result.getConsensus().isPresent()) {
             if(cachedConfig.get().getDebug()) {
                 logger.info("Got VPN result: " + ip + " = " + result.getConsensus().get());
             }
+            if(isStale(result, cachedConfig.get())) {
+                refreshInBackground(ip, cachedConfig.get(), false);
+            } else if(offHeapCache != null) {
+                offHeapCache.put(ip, Optional.empty(), result.getConsensus(), result.getCreated());
+            }
             return result.getConsensus().get();
         }
 
-        ExecutorService threadPool = Executors.newWorkStealingPool(cachedConfig.get().getThreads());
-        CountDownLatch latch = new CountDownLatch(cachedConfig.get().getSources().size());
-        AtomicDouble r = new AtomicDouble(0.0d);
-        AtomicDouble success = new AtomicDouble(0.0d);
+        return consensusSources(ip, cachedConfig.get());
+    }
+
+    private static double consensusSources(IPKey ip, CachedConfigValues cachedConfig) throws APIException {
+
+        ExecutorService threadPool = sourcePool;
+        if(threadPool == null) {
+            throw new APIException(false, "API not yet initialized.");
+        }
+
+        boolean earlyExit = cachedConfig.getVPNAlgorithmEarlyExit();
+        double threshold = cachedConfig.getVPNAlgorithmConsensus();
+
+        ExecutorCompletionService<Optional<Boolean>> completionService = new ExecutorCompletionService<>(threadPool);
+        List<Future<Optional<Boolean>>> futures = new ArrayList<>();
         AtomicBoolean isHard = new AtomicBoolean(true);
-        for(Map.Entry<String, SourceAPI> kvp : cachedConfig.get().getSources().entrySet()) {
-            threadPool.submit(() -> {
-                if(!sourceValidationCache.get(kvp.getKey())) {
-                    if(cachedConfig.get().getDebug()) {
-                        logger.info("Skipping " + kvp.getKey() + " due to recently bad/failed result.");
-                    }
-                    latch.countDown();
-                    return;
-                }
-                if(cachedConfig.get().getDebug()) {
-                    logger.info("Getting VPN result from " + kvp.getKey());
+        Map<String, Boolean> answers = new ConcurrentHashMap<>();
+        for(Map.Entry<String, SourceAPI> kvp : cachedConfig.getSources().entrySet()) {
+            try {
+                futures.add(completionService.submit(() -> {
+                    Optional<Boolean> retVal = trySource(kvp, ip, cachedConfig, isHard);
+                    retVal.ifPresent(v -> answers.put(kvp.getKey(), v));
+                    return retVal;
+                }));
+            } catch(RejectedExecutionException ex) {
+                logger.warn("Source pool is shutting down; skipping source query.");
+            }
+        }
+
+        int positive = 0;
+        int success = 0;
+        int remaining = futures.size();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20L);
+        try {
+            while(remaining > 0) {
+                Future<Optional<Boolean>> future = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if(future == null) {
+                    logger.warn("Timeout reached before all sources could be queried.");
+                    break;
                 }
+                remaining--;
+
+                Optional<Boolean> tmp;
                 try {
-                    boolean tmp = kvp.getValue().getResult(ip);
-                    r.getAndAdd(tmp ? 1.0d : 0.0d);
-                    success.getAndAdd(1.0d);
-                    if(cachedConfig.get().getDebug()) {
-                        logger.info(kvp.getKey() + " returned " + tmp + " for " + ip);
-                    }
-                } catch(APIException ex) {
-                    if(cachedConfig.get().getDebug()) {
-                        logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
+                    tmp = future.get();
+                } catch(ExecutionException ex) {
+                    if(cachedConfig.getDebug()) {
+                        logger.error(ex.getMessage(), ex);
                     } else {
-                        logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage());
-                    }
-                    if(!ex.isHard()) {
-                        isHard.set(false);
+                        logger.error(ex.getMessage());
                     }
+                    continue;
+                }
+                if(!tmp.isPresent()) {
+                    continue;
+                }
 
-                    if(cachedConfig.get().getDebug()) {
-                        logger.info(kvp.getKey() + " returned a bad/failed result. Skipping source for a while.");
-                    }
-                    sourceValidationCache.put(kvp.getKey(), Boolean.FALSE);
+                success++;
+                if(tmp.get()) {
+                    positive++;
                 }
-                latch.countDown();
-            });
-        }
 
-        try {
-            if(!latch.await(20L, TimeUnit.SECONDS)) {
-                logger.warn("Timeout reached before all sources could be queried.");
+                if(earlyExit && remaining > 0 && isConsensusDecided(positive, success, remaining, threshold)) {
+                    if(cachedConfig.getDebug()) {
+                        logger.info("Consensus for " + ip + " decided with " + remaining + " source(s) outstanding.");
+                    }
+                    break;
+                }
             }
         } catch(InterruptedException ex) {
-            if(cachedConfig.get().getDebug()) {
+            if(cachedConfig.getDebug()) {
                 logger.error(ex.getMessage(), ex);
             } else {
                 logger.error(ex.getMessage());
             }
             Thread.currentThread().interrupt();
         }
-        threadPool.shutdownNow(); // Kill it with fire
+        for(Future<?> future : futures) {
+            future.cancel(true); // Kill it with fire
+        }
 
-        if(success.get() == 0.0d) {
+        if(success == 0) {
             throw new APIException(isHard.get(), "Consensus had no valid/usable sources.");
         }
 
-        double value = r.get() / success.get();
+        double value = (double) positive / (double) success;
 
-        if(cachedConfig.get().getDebug()) {
+        if(success > 1) {
+            // Lets adaptive cascade ordering favor sources that agree with the others
+            boolean verdict = value >= threshold;
+            for(Map.Entry<String, Boolean> kvp : answers.entrySet()) {
+                sourceMetrics.recordAgreement(kvp.getKey(), kvp.getValue() == verdict);
+            }
+        }
+
+        if(cachedConfig.getDebug()) {
             logger.info("Got VPN result: " + ip + " = " + value);
             logger.info("Propagating to storage & messaging");
         }
@@ -480,13 +1605,13 @@ public class VPNAPI {
         PostVPNResult postResult = null;
         Storage postedStorage = null;
         boolean canRecover = false;
-        for(Storage s : cachedConfig.get().getStorage()) {
+        for(Storage s : cachedConfig.getStorage()) {
             try {
                 postResult = s.postVPN(ip, value);
                 postedStorage = s;
                 break;
             } catch(StorageException ex) {
-                if(cachedConfig.get().getDebug()) {
+                if(cachedConfig.getDebug()) {
                     logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
                 } else {
                     logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
@@ -501,7 +1626,11 @@ public class VPNAPI {
         }
 
         handler.cacheVPNPost(postResult.getID());
-        for(Storage s : cachedConfig.get().getStorage()) {
+        OffHeapVerdictCache offHeapCache = verdictCache;
+        if(offHeapCache != null) {
+            offHeapCache.put(ip, postResult.getCascade(), postResult.getConsensus(), postResult.getCreated());
+        }
+        for(Storage s : cachedConfig.getStorage()) {
             try {
                 if(s == postedStorage) {
                     continue;
@@ -514,7 +1643,7 @@ public class VPNAPI {
                         postResult.getCreated()
                 );
             } catch(StorageException ex) {
-                if(cachedConfig.get().getDebug()) {
+                if(cachedConfig.getDebug()) {
                     logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
                 } else {
                     logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
@@ -523,11 +1652,11 @@ public class VPNAPI {
         }
 
         canRecover = false;
-        if(cachedConfig.get().getMessaging().size() > 0) {
+        if(cachedConfig.getMessaging().size() > 0) {
             boolean handled = false;
             UUID messageID = UUID.randomUUID();
             handler.cacheMessage(messageID);
-            for(Messaging m : cachedConfig.get().getMessaging()) {
+            for(Messaging m : cachedConfig.getMessaging()) {
                 try {
                     m.sendPostVPN(
                             messageID,
@@ -540,7 +1669,7 @@ public class VPNAPI {
                     );
                     handled = true;
                 } catch(MessagingException ex) {
-                    if(cachedConfig.get().getDebug()) {
+                    if(cachedConfig.getDebug()) {
                         logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
                     } else {
                         logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage());
@@ -0,0 +1,265 @@
+package me.egg82.antivpn.apis;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fields a source needs from a JSON object response
+ * Responses are streamed through the parser rather than built into a tree, keeping only these fields,
+ * and parsing stops as soon as all of them have been seen
+ *
+ * A field is a path of object keys from the top-level object. A field holding an array of primitives
+ * is read as a list, anything else in the array is skipped
+ */
+public class JSONFields {
+    private final Node root;
+    private final int count;
+
+    private JSONFields(Node root, int count) {
+        this.root = root;
+        this.count = count;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reads the fields from a JSON object
+     * The reader is left wherever parsing stopped, so it should be closed afterwards
+     *
+     * @param reader The JSON to read
+     * @return The fields that were found
+     * @throws IOException if the reader could not be read
+     * @throws ParseException if the JSON is invalid or not an object
+     */
+    public Values read(Reader reader) throws IOException, ParseException {
+        Handler handler = new Handler();
+        new JSONParser().parse(reader, handler);
+        return new Values(handler.values);
+    }
+
+    public static class Builder {
+        private final Node root = new Node();
+        private int count = 0;
+
+        private Builder() { }
+
+        public Builder field(String... path) {
+            if(path == null || path.length == 0) {
+                throw new IllegalArgumentException("path cannot be null or empty.");
+            }
+
+            Node node = root;
+            for(String key : path) {
+                if(key == null) {
+                    throw new IllegalArgumentException("path cannot contain null keys.");
+                }
+                node = node.children.computeIfAbsent(key, k -> new Node());
+            }
+            if(node.path == null) {
+                node.path = Collections.unmodifiableList(Arrays.asList(path.clone()));
+                count++;
+            }
+            return this;
+        }
+
+        public JSONFields build() {
+            if(count == 0) {
+                throw new IllegalStateException("At least one field must be added.");
+            }
+            return new JSONFields(root, count);
+        }
+    }
+
+    public static class Values {
+        private final Map<List<String>, Object> values;
+
+        private Values(Map<List<String>, Object> values) {
+            this.values = values;
+        }
+
+        /**
+         * @param path The field's path
+         * @return The field's value, or null if it was missing or null
+         */
+        public Object get(String... path) {
+            return values.get(Arrays.asList(path));
+        }
+
+        public String getString(String... path) throws ClassCastException {
+            return (String) get(path);
+        }
+
+        public Number getNumber(String... path) throws ClassCastException {
+            return (Number) get(path);
+        }
+
+        public Boolean getBoolean(String... path) throws ClassCastException {
+            return (Boolean) get(path);
+        }
+
+        /**
+         * @param path The field's path
+         * @return Whether or not the field is present and true
+         * @throws ClassCastException if the field is present but not a boolean
+         */
+        public boolean isTrue(String... path) throws ClassCastException {
+            Boolean retVal = getBoolean(path);
+            return retVal != null && retVal;
+        }
+
+        @SuppressWarnings("unchecked")
+        public List<Object> getList(String... path) throws ClassCastException {
+            return (List<Object>) get(path);
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        // Set if this node is a requested field
+        private List<String> path = null;
+    }
+
+    private final class Handler implements ContentHandler {
+        // Marks a container whose contents don't lead to any field
+        private final Node skip = new Node();
+
+        private final Map<List<String>, Object> values = new HashMap<>();
+        private final Deque<Node> containers = new ArrayDeque<>();
+        private int remaining = count;
+        private boolean started = false;
+
+        // The node for the current object entry's value, if it leads to a field
+        private Node entry = null;
+
+        // The array field currently being read, and how deep into nested containers in it the parser is
+        private Node arrayField = null;
+        private List<Object> array = null;
+        private int arrayDepth = 0;
+
+        public void startJSON() { }
+
+        public void endJSON() { }
+
+        public boolean startObject() throws ParseException {
+            if(array != null) {
+                arrayDepth++;
+                return true;
+            }
+
+            Node node = started ? entry : root;
+            if(!started) {
+                started = true;
+            } else if(containers.isEmpty()) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN);
+            }
+            containers.push(node != null ? node : skip);
+            entry = null;
+            return true;
+        }
+
+        public boolean endObject() {
+            if(array != null) {
+                arrayDepth--;
+                return true;
+            }
+
+            containers.pop();
+            return true;
+        }
+
+        public boolean startObjectEntry(String key) {
+            if(array != null) {
+                return true;
+            }
+
+            Node top = containers.peek();
+            entry = top != skip ? top.children.get(key) : null;
+            return true;
+        }
+
+        public boolean endObjectEntry() {
+            if(array == null) {
+                entry = null;
+            }
+            return true;
+        }
+
+        public boolean startArray() throws ParseException {
+            if(!started) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN);
+            }
+
+            if(array != null) {
+                arrayDepth++;
+                return true;
+            }
+
+            if(entry != null && entry.path != null) {
+                arrayField = entry;
+                array = new ArrayList<>();
+                arrayDepth = 0;
+            } else {
+                containers.push(skip);
+            }
+            entry = null;
+            return true;
+        }
+
+        public boolean endArray() {
+            if(array == null) {
+                containers.pop();
+                return true;
+            }
+
+            if(arrayDepth > 0) {
+                arrayDepth--;
+                return true;
+            }
+
+            List<Object> value = Collections.unmodifiableList(array);
+            array = null;
+            return found(arrayField, value);
+        }
+
+        public boolean primitive(Object value) throws ParseException {
+            if(!started) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN);
+            }
+
+            if(array != null) {
+                if(arrayDepth == 0) {
+                    array.add(value);
+                }
+                return true;
+            }
+
+            if(entry != null && entry.path != null) {
+                return found(entry, value);
+            }
+            return true;
+        }
+
+        private boolean found(Node node, Object value) {
+            if(!values.containsKey(node.path)) {
+                values.put(node.path, value);
+                remaining--;
+            }
+            // Returning false stops the parser
+            return remaining > 0;
+        }
+    }
+}
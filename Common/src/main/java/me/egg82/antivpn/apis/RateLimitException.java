@@ -0,0 +1,13 @@
+package me.egg82.antivpn.apis;
+
+import me.egg82.antivpn.APIException;
+
+/**
+ * Thrown when a source refuses a call because its configured rate limit has been reached
+ * The source itself was never called, so this says nothing about its health
+ */
+public class RateLimitException extends APIException {
+    public RateLimitException(String message) {
+        super(false, message);
+    }
+}
@@ -1,11 +1,38 @@
 package me.egg82.antivpn.apis;
 
 import me.egg82.antivpn.APIException;
+import org.spongepowered.configurate.ConfigurationNode;
+
+import java.util.concurrent.CompletableFuture;
 
 public interface SourceAPI {
     String getName();
 
     boolean isKeyRequired();
 
+    /**
+     * Reads the source's settings from the config, called every time the config is loaded
+     * Lookups only use what was read here, so they never go back to the config
+     *
+     * @param config The root config node
+     */
+    void load(ConfigurationNode config);
+
     boolean getResult(String ip) throws APIException;
+
+    /**
+     * Gets a result without blocking the calling thread
+     * Cancelling the returned future cancels the lookup, including any request it's waiting on
+     *
+     * @param ip The IP to look up
+     * @return A future completing with whether or not the source considers the IP a VPN
+     */
+    CompletableFuture<Boolean> getResultAsync(String ip);
+
+    /**
+     * Whether or not a call to the source right now would be refused by its configured rate limit
+     *
+     * @return true if the source is currently throttled
+     */
+    boolean isThrottled();
 }
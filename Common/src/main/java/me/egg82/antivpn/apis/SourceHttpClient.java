@@ -0,0 +1,252 @@
+package me.egg82.antivpn.apis;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP client shared by every source
+ * Connections are pooled per host and kept alive between lookups, and all clients share one TLS session cache,
+ * so most lookups skip the TCP and TLS handshakes entirely
+ * Requests are non-blocking and can be cancelled at any point
+ * Responses are streamed straight into the parser, keeping only the fields the source asked for
+ */
+public class SourceHttpClient {
+    private static final String USER_AGENT = "egg82/AntiVPN";
+
+    private static final Object lock = new Object();
+    private static volatile OkHttpClient client = null;
+    private static volatile int maxIdle = 10;
+    private static volatile long keepAlive = TimeUnit.MINUTES.toMillis(5L);
+
+    // Sources with the same timeouts can share a client, keyed by connect timeout then read timeout
+    private static final ConcurrentMap<Long, OkHttpClient> timeoutClients = new ConcurrentHashMap<>();
+
+    private SourceHttpClient() {
+    }
+
+    /**
+     * Sets the pool's size and keep-alive time, replacing the pool only if they've changed
+     *
+     * @param maxIdleConnections The maximum number of idle connections to keep open across all hosts
+     * @param keepAliveMillis How long an idle connection is kept open for
+     */
+    public static void reload(int maxIdleConnections, long keepAliveMillis) {
+        if(maxIdleConnections <= 0) {
+            throw new IllegalArgumentException("maxIdleConnections cannot be <= 0.");
+        }
+        if(keepAliveMillis <= 0L) {
+            throw new IllegalArgumentException("keepAliveMillis cannot be <= 0.");
+        }
+
+        OkHttpClient oldClient;
+        synchronized(lock) {
+            if(client != null && maxIdle == maxIdleConnections && keepAlive == keepAliveMillis) {
+                return;
+            }
+            oldClient = client;
+            maxIdle = maxIdleConnections;
+            keepAlive = keepAliveMillis;
+            client = null;
+            timeoutClients.clear();
+        }
+
+        if(oldClient != null) {
+            // In-flight calls keep their connections and threads, anything idle can go
+            oldClient.connectionPool().evictAll();
+            oldClient.dispatcher().executorService().shutdown();
+        }
+    }
+
+    public static void close() {
+        OkHttpClient oldClient;
+        synchronized(lock) {
+            oldClient = client;
+            client = null;
+            timeoutClients.clear();
+        }
+
+        if(oldClient != null) {
+            oldClient.dispatcher().executorService().shutdown();
+            oldClient.connectionPool().evictAll();
+        }
+    }
+
+    /**
+     * Gets a client using the shared pool with the given timeouts
+     *
+     * @param connectTimeoutMillis The connect timeout
+     * @param readTimeoutMillis The read timeout
+     * @return A client sharing connections with every other source
+     */
+    public static OkHttpClient get(int connectTimeoutMillis, int readTimeoutMillis) {
+        if(connectTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("connectTimeoutMillis cannot be <= 0.");
+        }
+        if(readTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("readTimeoutMillis cannot be <= 0.");
+        }
+
+        long key = ((long) connectTimeoutMillis << 32) | readTimeoutMillis;
+        OkHttpClient retVal = timeoutClients.get(key);
+        if(retVal != null) {
+            return retVal;
+        }
+
+        OkHttpClient root = getRoot();
+        // Derived clients share the root's pool, dispatcher, and SSL socket factory (and so its session cache)
+        retVal = root.newBuilder()
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+        synchronized(lock) {
+            if(client != root) {
+                // Pool was replaced while building, don't cache a client tied to the old one
+                return retVal;
+            }
+            OkHttpClient oldValue = timeoutClients.putIfAbsent(key, retVal);
+            return oldValue != null ? oldValue : retVal;
+        }
+    }
+
+    /**
+     * Sends a GET request without blocking and reads the given fields from the JSON object it returns
+     * Cancelling the returned future cancels the request, closing its connection if it's mid-read
+     *
+     * @param client The client to use, from {@link #get(int, int)}
+     * @param url The URL to request
+     * @param headers Any extra headers to send, or null
+     * @param fields The fields to read from the response
+     * @return A future completing with the fields, or with an IOException if the request failed
+     * or the server returned an error status, or a ParseException if the response was not a valid JSON object
+     */
+    public static CompletableFuture<JSONFields.Values> getJSONFieldsAsync(OkHttpClient client, String url, Map<String, String> headers, JSONFields fields) {
+        return sendAsync(client, url, null, headers, fields);
+    }
+
+    /**
+     * Sends a form-encoded POST request without blocking and reads the given fields from the JSON object it returns
+     * Fails and cancels the same way as {@link #getJSONFieldsAsync(OkHttpClient, String, Map, JSONFields)}
+     *
+     * @param client The client to use, from {@link #get(int, int)}
+     * @param url The URL to request
+     * @param form The form fields to send
+     * @param headers Any extra headers to send, or null
+     * @param fields The fields to read from the response
+     * @return A future completing with the fields
+     */
+    public static CompletableFuture<JSONFields.Values> postJSONFieldsAsync(OkHttpClient client, String url, Map<String, String> form, Map<String, String> headers, JSONFields fields) {
+        if(form == null) {
+            throw new IllegalArgumentException("form cannot be null.");
+        }
+        return sendAsync(client, url, form, headers, fields);
+    }
+
+    private static CompletableFuture<JSONFields.Values> sendAsync(OkHttpClient client, String url, Map<String, String> form, Map<String, String> headers, JSONFields fields) {
+        if(fields == null) {
+            throw new IllegalArgumentException("fields cannot be null.");
+        }
+
+        CompletableFuture<JSONFields.Values> retVal = new CompletableFuture<>();
+
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        if(httpUrl == null) {
+            retVal.completeExceptionally(new IOException("Invalid URL."));
+            return retVal;
+        }
+
+        Request.Builder request = new Request.Builder().url(httpUrl).header("User-Agent", USER_AGENT);
+        if(headers != null) {
+            for(Map.Entry<String, String> kvp : headers.entrySet()) {
+                request.header(kvp.getKey(), kvp.getValue());
+            }
+        }
+        if(form != null) {
+            FormBody.Builder body = new FormBody.Builder();
+            for(Map.Entry<String, String> kvp : form.entrySet()) {
+                body.add(kvp.getKey(), kvp.getValue());
+            }
+            request.post(body.build());
+        }
+
+        Call call = client.newCall(request.build());
+        retVal.whenComplete((v, ex) -> {
+            if(retVal.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            public void onFailure(Call call, IOException ex) {
+                retVal.completeExceptionally(ex);
+            }
+
+            public void onResponse(Call call, Response response) {
+                try(Response r = response) {
+                    if(!r.isSuccessful()) {
+                        throw new IOException("Server returned status code " + r.code());
+                    }
+                    ResponseBody body = r.body();
+                    if(body == null) {
+                        throw new IOException("Server returned an empty response.");
+                    }
+                    // Closing the response drops whatever the parser didn't need
+                    retVal.complete(fields.read(body.charStream()));
+                } catch(IOException | ParseException | RuntimeException ex) {
+                    retVal.completeExceptionally(ex);
+                }
+            }
+        });
+        return retVal;
+    }
+
+    /**
+     * @return The number of open connections in the pool, both in use and idle
+     */
+    public static int getConnectionCount() {
+        OkHttpClient retVal = client;
+        return retVal == null ? 0 : retVal.connectionPool().connectionCount();
+    }
+
+    /**
+     * @return The number of idle connections in the pool
+     */
+    public static int getIdleConnectionCount() {
+        OkHttpClient retVal = client;
+        return retVal == null ? 0 : retVal.connectionPool().idleConnectionCount();
+    }
+
+    private static OkHttpClient getRoot() {
+        OkHttpClient retVal = client;
+        if(retVal != null) {
+            return retVal;
+        }
+
+        synchronized(lock) {
+            if(client == null) {
+                // Sources have their own rate limits, so don't hold requests back per host
+                Dispatcher dispatcher = new Dispatcher();
+                dispatcher.setMaxRequestsPerHost(dispatcher.getMaxRequests());
+                client = new OkHttpClient.Builder()
+                        .dispatcher(dispatcher)
+                        .connectionPool(new ConnectionPool(maxIdle, keepAlive, TimeUnit.MILLISECONDS))
+                        .build();
+            }
+            return client;
+        }
+    }
+}
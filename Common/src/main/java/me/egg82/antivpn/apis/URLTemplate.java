@@ -0,0 +1,39 @@
+package me.egg82.antivpn.apis;
+
+/**
+ * A source URL with a single placeholder for the IP
+ * The template is split around the placeholder up-front, so filling it in is a single concatenation
+ */
+public class URLTemplate {
+    public static final String IP = "{ip}";
+
+    private final String prefix;
+    private final String suffix;
+
+    /**
+     * @param template The URL, containing {@value #IP} exactly once
+     */
+    public URLTemplate(String template) {
+        if(template == null) {
+            throw new IllegalArgumentException("template cannot be null.");
+        }
+        int index = template.indexOf(IP);
+        if(index < 0) {
+            throw new IllegalArgumentException("template must contain " + IP + ".");
+        }
+        if(template.indexOf(IP, index + IP.length()) >= 0) {
+            throw new IllegalArgumentException("template cannot contain " + IP + " more than once.");
+        }
+
+        prefix = template.substring(0, index);
+        suffix = template.substring(index + IP.length());
+    }
+
+    public String format(String ip) {
+        return new StringBuilder(prefix.length() + ip.length() + suffix.length()).append(prefix).append(ip).append(suffix).toString();
+    }
+
+    public String toString() {
+        return prefix + IP + suffix;
+    }
+}
@@ -1,29 +1,342 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.RateLimitException;
 import me.egg82.antivpn.apis.SourceAPI;
-import me.egg82.antivpn.extended.CachedConfigValues;
-import me.egg82.antivpn.utils.ConfigUtil;
+import me.egg82.antivpn.apis.SourceHttpClient;
+import me.egg82.antivpn.services.RateLimiter;
+import me.egg82.antivpn.utils.TimeUtil;
+import me.egg82.antivpn.utils.ValidationUtil;
+import okhttp3.OkHttpClient;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.spongepowered.configurate.ConfigurationNode;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
-public abstract class AbstractSourceAPI implements SourceAPI {
-    protected final ConfigurationNode getSourceConfigNode() throws APIException {
-        Optional<ConfigurationNode> config = ConfigUtil.getConfig();
-        if(!config.isPresent()) {
-            throw new APIException(true, "Could not get configuration.");
+/**
+ * Base for the built-in sources
+ * Everything a lookup needs is read from the config once, when the source is loaded, into an immutable settings object
+ *
+ * @param <S> The source's own settings
+ */
+public abstract class AbstractSourceAPI<S> implements SourceAPI {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractSourceAPI.class);
+
+    // Sources are re-created on reload, so keep limiters here to avoid handing out a fresh burst every time
+    private static final ConcurrentMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+    // Runs sources that only implement the blocking lookup. Owned by VPNAPI, which replaces it on reload and shuts it down
+    private static volatile ExecutorService bridgePool = null;
+
+    private volatile LoadedSettings<S> settings = null;
+
+    public final void load(ConfigurationNode config) {
+        ConfigurationNode sourceConfigNode = config.node("sources", getName());
+        int timeout = (int) config.node("connection", "timeout").getLong(5000L);
+        if(timeout <= 0) {
+            timeout = 5000;
+        }
+
+        settings = new LoadedSettings<>(
+                getTimeout(sourceConfigNode, "connect-timeout", timeout),
+                getTimeout(sourceConfigNode, "read-timeout", timeout),
+                loadRateLimiter(sourceConfigNode),
+                loadSettings(sourceConfigNode)
+        );
+    }
+
+    public final boolean getResult(String ip) throws APIException {
+        if(ip == null) {
+            throw new IllegalArgumentException("ip cannot be null.");
+        }
+        if(!ValidationUtil.isValidIp(ip)) {
+            throw new IllegalArgumentException("ip is invalid.");
+        }
+
+        CompletableFuture<Boolean> future = getResultAsync(ip);
+        try {
+            return future.get();
+        } catch(InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new APIException(false, "Interrupted while waiting on " + getName() + ".", ex);
+        } catch(CancellationException ex) {
+            throw new APIException(false, "Lookup from " + getName() + " was cancelled.", ex);
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof APIException) {
+                throw (APIException) ex.getCause();
+            }
+            if(ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if(ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new APIException(false, "Could not get result from " + getName(), ex.getCause());
+        }
+    }
+
+    public final CompletableFuture<Boolean> getResultAsync(String ip) {
+        if(ip == null) {
+            return failedFuture(new IllegalArgumentException("ip cannot be null."));
+        }
+        if(!ValidationUtil.isValidIp(ip)) {
+            return failedFuture(new IllegalArgumentException("ip is invalid."));
+        }
+
+        LoadedSettings<S> loaded = settings;
+        if(loaded == null) {
+            return failedFuture(new APIException(true, getName() + " has not been loaded."));
+        }
+        if(loaded.rateLimiter.isPresent() && !loaded.rateLimiter.get().tryAcquire()) {
+            return failedFuture(new RateLimitException(getName() + " has reached its configured rate limit."));
+        }
+
+        try {
+            return getResultExpensiveAsync(ip);
+        } catch(APIException ex) {
+            return failedFuture(ex);
+        }
+    }
+
+    public final boolean isThrottled() {
+        LoadedSettings<S> loaded = settings;
+        return loaded != null && loaded.rateLimiter.isPresent() && loaded.rateLimiter.get().isThrottled();
+    }
+
+    /**
+     * Reads the source's own settings, called every time the config is loaded
+     * Anything a lookup needs, including its URL templates, should be built here
+     *
+     * @param sourceConfigNode The source's section of the config
+     * @return The source's settings
+     */
+    protected abstract S loadSettings(ConfigurationNode sourceConfigNode);
+
+    protected final S getSettings() throws APIException {
+        LoadedSettings<S> loaded = settings;
+        if(loaded == null) {
+            throw new APIException(true, getName() + " has not been loaded.");
         }
+        return loaded.source;
+    }
 
-        return config.get().node("sources", getName());
+    /**
+     * Looks up a result, blocking the calling thread
+     * Only called by the default {@link #getResultExpensiveAsync(String)}, so sources overriding that don't need this
+     *
+     * @param ip The IP to look up
+     * @return Whether or not the source considers the IP a VPN
+     * @throws APIException if the lookup failed
+     */
+    protected boolean getResultExpensive(String ip) throws APIException {
+        throw new APIException(true, getName() + " does not implement a lookup.");
     }
 
-    protected final CachedConfigValues getCachedConfig() throws APIException {
-        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
-        if(!cachedConfig.isPresent()) {
-            throw new APIException(true, "Cached config could not be fetched.");
+    /**
+     * Looks up a result without blocking the calling thread
+     * By default this bridges to {@link #getResultExpensive(String)} on a separate thread, which is interrupted
+     * (cancelling any request it's waiting on) if the future is cancelled
+     *
+     * @param ip The IP to look up
+     * @return A future completing with whether or not the source considers the IP a VPN
+     * @throws APIException if the lookup could not be started
+     */
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        ExecutorService pool = bridgePool;
+        if(pool == null) {
+            throw new APIException(false, "API not yet initialized.");
+        }
+
+        CompletableFuture<Boolean> retVal = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = pool.submit(() -> {
+                try {
+                    retVal.complete(getResultExpensive(ip));
+                } catch(APIException | RuntimeException ex) {
+                    retVal.completeExceptionally(ex);
+                }
+            });
+        } catch(RejectedExecutionException ex) {
+            throw new APIException(false, "Could not start lookup from " + getName() + ".", ex);
         }
+        retVal.whenComplete((v, ex) -> {
+            if(retVal.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return retVal;
+    }
+
+    /**
+     * Sets the pool that blocking lookups are run on
+     *
+     * @param pool The pool, or null if the API is closed
+     */
+    public static void setBridgePool(ExecutorService pool) {
+        bridgePool = pool;
+    }
 
-        return cachedConfig.get();
+    protected final JSONFields.Values getJSONFields(String url, JSONFields fields) throws APIException, IOException, ParseException {
+        return getJSONFields(url, null, fields);
+    }
+
+    /**
+     * Blocking request for sources that implement {@link #getResultExpensive(String)}
+     * Interrupting the calling thread cancels the request
+     */
+    protected final JSONFields.Values getJSONFields(String url, Map<String, String> headers, JSONFields fields) throws APIException, IOException, ParseException {
+        CompletableFuture<JSONFields.Values> future = SourceHttpClient.getJSONFieldsAsync(getHttpClient(), url, headers, fields);
+        try {
+            return future.get();
+        } catch(InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request to " + getName() + " was interrupted.");
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            if(ex.getCause() instanceof ParseException) {
+                throw (ParseException) ex.getCause();
+            }
+            if(ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Non-blocking form-encoded POST, for sources with bulk endpoints
+     * Cancelling the returned future cancels the request
+     */
+    protected final CompletableFuture<JSONFields.Values> postJSONFieldsAsync(String url, Map<String, String> form, JSONFields fields) throws APIException {
+        return SourceHttpClient.postJSONFieldsAsync(getHttpClient(), url, form, null, fields);
+    }
+
+    protected final CompletableFuture<Boolean> getJSONResultAsync(String url, JSONFields fields, JSONResult result) throws APIException {
+        return getJSONResultAsync(url, null, fields, result);
+    }
+
+    protected final CompletableFuture<Boolean> getJSONResultAsync(String url, Map<String, String> headers, JSONFields fields, JSONResult result) throws APIException {
+        return getJSONResultAsync(url, headers, "Could not get result from " + getName(), fields, result);
+    }
+
+    /**
+     * Non-blocking request which hands the response to the source to turn into a result
+     * Cancelling the returned future cancels the request
+     *
+     * @param url The URL to request
+     * @param headers Any extra headers to send, or null
+     * @param errorMessage The message to fail with if the request fails or the response isn't a JSON object
+     * @param fields The fields the source needs from the response
+     * @param result Turns the fields into a result, run on the HTTP client's thread
+     * @return A future completing with the result
+     * @throws APIException if the request could not be started
+     */
+    protected final CompletableFuture<Boolean> getJSONResultAsync(String url, Map<String, String> headers, String errorMessage, JSONFields fields, JSONResult result) throws APIException {
+        CompletableFuture<JSONFields.Values> request = SourceHttpClient.getJSONFieldsAsync(getHttpClient(), url, headers, fields);
+        CompletableFuture<Boolean> retVal = new CompletableFuture<>();
+        request.whenComplete((json, ex) -> {
+            if(ex != null) {
+                retVal.completeExceptionally(new APIException(false, errorMessage, ex));
+                return;
+            }
+            try {
+                retVal.complete(result.apply(json));
+            } catch(APIException | RuntimeException ex2) {
+                retVal.completeExceptionally(ex2);
+            }
+        });
+        retVal.whenComplete((v, ex) -> {
+            if(retVal.isCancelled()) {
+                request.cancel(true);
+            }
+        });
+        return retVal;
+    }
+
+    /**
+     * Gets the shared HTTP client with this source's timeouts
+     * Each source can override connection.timeout with its own connect-timeout and read-timeout
+     *
+     * @return The client to send this source's requests with
+     * @throws APIException if the source has not been loaded
+     */
+    protected final OkHttpClient getHttpClient() throws APIException {
+        LoadedSettings<S> loaded = settings;
+        if(loaded == null) {
+            throw new APIException(true, getName() + " has not been loaded.");
+        }
+        return SourceHttpClient.get(loaded.connectTimeout, loaded.readTimeout);
+    }
+
+    private int getTimeout(ConfigurationNode sourceConfigNode, String name, int def) {
+        int retVal = sourceConfigNode.node(name).getInt(def);
+        if(retVal <= 0) {
+            logger.warn("sources." + getName() + "." + name + " cannot be <= 0. Using default value.");
+            retVal = def;
+        }
+        return retVal;
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable ex) {
+        CompletableFuture<T> retVal = new CompletableFuture<>();
+        retVal.completeExceptionally(ex);
+        return retVal;
+    }
+
+    private Optional<RateLimiter> loadRateLimiter(ConfigurationNode sourceConfigNode) {
+        ConfigurationNode rateLimitNode = sourceConfigNode.node("rate-limit");
+        int requests = rateLimitNode.node("requests").getInt(0);
+        if(requests <= 0) {
+            rateLimiters.remove(getName());
+            return Optional.empty();
+        }
+
+        Optional<TimeUtil.Time> period = TimeUtil.getTime(rateLimitNode.node("period").getString("1minute"));
+        if(!period.isPresent() || period.get().getMillis() <= 0L) {
+            logger.warn("sources." + getName() + ".rate-limit.period is not a valid time pattern. Using default value.");
+            period = Optional.of(new TimeUtil.Time(1L, TimeUnit.MINUTES));
+        }
+
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(period.get().getMillis());
+        return Optional.of(rateLimiters.compute(getName(), (k, v) -> v != null && v.hasSettings(requests, periodNanos) ? v : new RateLimiter(requests, periodNanos)));
+    }
+
+    @FunctionalInterface
+    protected interface JSONResult {
+        boolean apply(JSONFields.Values json) throws APIException;
+    }
+
+    private static final class LoadedSettings<S> {
+        private final int connectTimeout;
+        private final int readTimeout;
+        private final Optional<RateLimiter> rateLimiter;
+        private final S source;
+
+        private LoadedSettings(int connectTimeout, int readTimeout, Optional<RateLimiter> rateLimiter, S source) {
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            this.rateLimiter = rateLimiter;
+            this.source = source;
+        }
     }
 }
@@ -1,16 +1,15 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
 import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+public class IP2Proxy extends AbstractSourceAPI<URLTemplate> {
+    private static final JSONFields FIELDS = JSONFields.builder().field("response").field("isProxy").build();
 
-public class IP2Proxy extends AbstractSourceAPI {
     public String getName() {
         return "ip2proxy";
     }
@@ -19,41 +18,33 @@ public class IP2Proxy extends AbstractSourceAPI {
         return true;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
-
-        ConfigurationNode sourceConfigNode = getSourceConfigNode();
-
-        String key = sourceConfigNode.node("key").getString();
-        if(key == null || key.isEmpty()) {
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        URLTemplate url = getSettings();
+        if(url == null) {
             throw new APIException(true, "Key is not defined for " + getName());
         }
 
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("https://api.ip2proxy.com/?ip=" + ip + "&key=" + key + "&package=PX1&format=json"), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN");
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-        if(json == null || json.get("response") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+        return getJSONResultAsync(url.format(ip), FIELDS, json -> {
+            if(json.get("response") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        String status = (String) json.get("response");
-        if(!status.equalsIgnoreCase("OK")) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+            String status = json.getString("response");
+            if(!status.equalsIgnoreCase("OK")) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        if(json.get("isProxy") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-        String proxy = (String) json.get("isProxy");
+            if(json.get("isProxy") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+            String proxy = json.getString("isProxy");
 
-        return proxy.equalsIgnoreCase("YES");
+            return proxy.equalsIgnoreCase("YES");
+        });
+    }
+
+    protected URLTemplate loadSettings(ConfigurationNode sourceConfigNode) {
+        String key = sourceConfigNode.node("key").getString();
+        return key == null || key.isEmpty() ? null : new URLTemplate("https://api.ip2proxy.com/?ip=" + URLTemplate.IP + "&key=" + key + "&package=PX1&format=json");
     }
 }
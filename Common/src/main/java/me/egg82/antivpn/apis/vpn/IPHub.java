@@ -1,18 +1,18 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
 import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class IPHub extends AbstractSourceAPI<IPHub.Settings> {
+    private static final URLTemplate URL = new URLTemplate("https://v2.api.iphub.info/ip/" + URLTemplate.IP);
+    private static final JSONFields FIELDS = JSONFields.builder().field("block").build();
 
-public class IPHub extends AbstractSourceAPI {
     public String getName() {
         return "iphub";
     }
@@ -21,37 +21,37 @@ public class IPHub extends AbstractSourceAPI {
         return true;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        Settings settings = getSettings();
+        if(settings.headers == null) {
+            throw new APIException(true, "Key is not defined for " + getName());
         }
 
-        ConfigurationNode sourceConfigNode = getSourceConfigNode();
+        return getJSONResultAsync(URL.format(ip), settings.headers, FIELDS, json -> {
+            if(json.get("block") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        String key = sourceConfigNode.node("key").getString();
-        if(key == null || key.isEmpty()) {
-            throw new APIException(true, "Key is not defined for " + getName());
-        }
+            int block = json.getNumber("block").intValue();
+            return block == settings.blockType;
+        });
+    }
 
-        int blockType = sourceConfigNode.node("block").getInt(1);
+    protected Settings loadSettings(ConfigurationNode sourceConfigNode) {
+        String key = sourceConfigNode.node("key").getString();
+        return new Settings(
+                key == null || key.isEmpty() ? null : Collections.singletonMap("X-Key", key),
+                sourceConfigNode.node("block").getInt(1)
+        );
+    }
 
-        Map<String, String> headers = new HashMap<>();
-        headers.put("X-Key", key);
+    static final class Settings {
+        private final Map<String, String> headers;
+        private final int blockType;
 
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("https://v2.api.iphub.info/ip/" + ip), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN", headers);
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, "Could not get result from " + getName());
+        private Settings(Map<String, String> headers, int blockType) {
+            this.headers = headers;
+            this.blockType = blockType;
         }
-        if(json == null || json.get("block") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-
-        int block = ((Number) json.get("block")).intValue();
-        return block == blockType;
     }
 }
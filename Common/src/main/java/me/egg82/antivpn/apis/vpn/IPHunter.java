@@ -1,18 +1,18 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
 import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class IPHunter extends AbstractSourceAPI<IPHunter.Settings> {
+    private static final URLTemplate URL = new URLTemplate("https://www.iphunter.info:8082/v1/ip/" + URLTemplate.IP);
+    private static final JSONFields FIELDS = JSONFields.builder().field("status").field("data", "block").build();
 
-public class IPHunter extends AbstractSourceAPI {
     public String getName() {
         return "iphunter";
     }
@@ -21,51 +21,46 @@ public class IPHunter extends AbstractSourceAPI {
         return true;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
-
-        ConfigurationNode sourceConfigNode = getSourceConfigNode();
-
-        String key = sourceConfigNode.node("key").getString();
-        if(key == null || key.isEmpty()) {
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        Settings settings = getSettings();
+        if(settings.headers == null) {
             throw new APIException(true, "Key is not defined for " + getName());
         }
 
-        int blockType = sourceConfigNode.node("block").getInt(1);
+        return getJSONResultAsync(URL.format(ip), settings.headers, FIELDS, json -> {
+            if(json.get("status") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        Map<String, String> headers = new HashMap<>();
-        headers.put("X-Key", key);
+            String status = json.getString("status");
+            if(!status.equalsIgnoreCase("success")) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("https://www.iphunter.info:8082/v1/ip/" + ip), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN", headers);
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, ex);
-        }
-        if(json == null || json.get("status") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+            if(json.get("data", "block") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        String status = (String) json.get("status");
-        if(!status.equalsIgnoreCase("success")) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+            int block = json.getNumber("data", "block").intValue();
+            return block == settings.blockType;
+        });
+    }
 
-        JSONObject data = (JSONObject) json.get("data");
-        if(data == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+    protected Settings loadSettings(ConfigurationNode sourceConfigNode) {
+        String key = sourceConfigNode.node("key").getString();
+        return new Settings(
+                key == null || key.isEmpty() ? null : Collections.singletonMap("X-Key", key),
+                sourceConfigNode.node("block").getInt(1)
+        );
+    }
 
-        if(data.get("block") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+    static final class Settings {
+        private final Map<String, String> headers;
+        private final int blockType;
 
-        int block = ((Number) data.get("block")).intValue();
-        return block == blockType;
+        private Settings(Map<String, String> headers, int blockType) {
+            this.headers = headers;
+            this.blockType = blockType;
+        }
     }
 }
@@ -1,18 +1,17 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+public class IPQualityScore extends AbstractSourceAPI<IPQualityScore.Settings> {
+    private static final JSONFields FIELDS = JSONFields.builder().field("success").field("proxy").field("vpn").field("tor").field("bot_status").field("recent_abuse").field("is_crawler").field("fraud_score").build();
 
-public class IPQualityScore extends AbstractSourceAPI {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     public String getName() {
@@ -23,20 +22,61 @@ public class IPQualityScore extends AbstractSourceAPI {
         return true;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        Settings settings = getSettings();
+        if(settings.url == null) {
+            throw new APIException(true, "Key is not defined for " + getName());
         }
 
-        ConfigurationNode sourceConfigNode = getSourceConfigNode();
+        return getJSONResultAsync(settings.url.format(ip), FIELDS, json -> {
+            if(json.get("success") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+
+            if(!json.getBoolean("success")) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
+            if(settings.proxy && json.get("proxy") != null) {
+                if(json.getBoolean("proxy")) {
+                    return true;
+                }
+            } else {
+                // If "proxy" is true, vpn or tor will also be true
+                if(json.isTrue("vpn")) {
+                    return true;
+                }
+                if(json.isTrue("tor")) {
+                    return true;
+                }
+            }
+            if(json.isTrue("bot_status")) {
+                return true;
+            }
+            if(settings.recentAbuse) {
+                if(json.isTrue("recent_abuse")) {
+                    return true;
+                }
+            }
+            if(json.isTrue("is_crawler")) {
+                return true;
+            }
+
+            if(json.get("fraud_score") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+
+            double retVal = json.getNumber("fraud_score").doubleValue();
+            if(retVal < 0.0d) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+
+            return retVal >= settings.threshold;
+        });
+    }
+
+    protected Settings loadSettings(ConfigurationNode sourceConfigNode) {
         String key = sourceConfigNode.node("key").getString();
-        if(key == null || key.isEmpty()) {
-            throw new APIException(true, "Key is not defined for " + getName());
-        }
 
         int strictness = sourceConfigNode.node("strictness").getInt();
         if(strictness < 0) {
@@ -48,54 +88,25 @@ public class IPQualityScore extends AbstractSourceAPI {
             strictness = 3;
         }
 
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("http://www.ipqualityscore.com/api/json/ip/" + key + "/" + ip + "?strictness=" + strictness + "&mobile=" + (sourceConfigNode.node("mobile").getBoolean() ? "true" : "false") + "&fast=true&allow_public_access_points=true&lighter_penalties=true"), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN");
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-        if(json == null || json.get("success") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-
-        if(!((Boolean) json.get("success"))) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-
-        if(sourceConfigNode.node("proxy").getBoolean() && json.get("proxy") != null) {
-            if(((Boolean) json.get("proxy"))) {
-                return true;
-            }
-        } else {
-            // If "proxy" is true, vpn or tor will also be true
-            if(json.get("vpn") != null && ((Boolean) json.get("vpn"))) {
-                return true;
-            }
-            if(json.get("tor") != null && ((Boolean) json.get("tor"))) {
-                return true;
-            }
-        }
-        if(json.get("bot_status") != null && ((Boolean) json.get("bot_status"))) {
-            return true;
-        }
-        if(sourceConfigNode.node("recent-abuse").getBoolean()) {
-            if(json.get("recent_abuse") != null && ((Boolean) json.get("recent_abuse"))) {
-                return true;
-            }
-        }
-        if(json.get("is_crawler") != null && ((Boolean) json.get("is_crawler"))) {
-            return true;
-        }
+        return new Settings(
+                key == null || key.isEmpty() ? null : new URLTemplate("http://www.ipqualityscore.com/api/json/ip/" + key + "/" + URLTemplate.IP + "?strictness=" + strictness + "&mobile=" + (sourceConfigNode.node("mobile").getBoolean() ? "true" : "false") + "&fast=true&allow_public_access_points=true&lighter_penalties=true"),
+                sourceConfigNode.node("proxy").getBoolean(),
+                sourceConfigNode.node("recent-abuse").getBoolean(),
+                sourceConfigNode.node("threshold").getDouble()
+        );
+    }
 
-        if(json.get("fraud_score") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+    static final class Settings {
+        private final URLTemplate url;
+        private final boolean proxy;
+        private final boolean recentAbuse;
+        private final double threshold;
 
-        double retVal = ((Number) json.get("fraud_score")).doubleValue();
-        if(retVal < 0.0d) {
-            throw new APIException(false, "Could not get result from " + getName());
+        private Settings(URLTemplate url, boolean proxy, boolean recentAbuse, double threshold) {
+            this.url = url;
+            this.proxy = proxy;
+            this.recentAbuse = recentAbuse;
+            this.threshold = threshold;
         }
-
-        return retVal >= sourceConfigNode.node("threshold").getDouble();
     }
 }
@@ -1,15 +1,16 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
+import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+public class IPTrooper extends AbstractSourceAPI<URLTemplate> {
+    private static final URLTemplate URL = new URLTemplate("https://api.iptrooper.net/check/" + URLTemplate.IP + "?full=1");
+    private static final JSONFields FIELDS = JSONFields.builder().field("bad").build();
 
-public class IPTrooper extends AbstractSourceAPI {
     public String getName() {
         return "iptrooper";
     }
@@ -18,24 +19,17 @@ public class IPTrooper extends AbstractSourceAPI {
         return false;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
-
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("https://api.iptrooper.net/check/" + ip + "?full=1"), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN");
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, ex);
-        }
-        if(json == null || json.get("bad") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-
-        return (Boolean) json.get("bad");
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        return getJSONResultAsync(URL.format(ip), FIELDS, json -> {
+            if(json.get("bad") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+
+            return json.getBoolean("bad");
+        });
+    }
+
+    protected URLTemplate loadSettings(ConfigurationNode sourceConfigNode) {
+        return URL;
     }
 }
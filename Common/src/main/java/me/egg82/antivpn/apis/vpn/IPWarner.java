@@ -1,16 +1,16 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
 import org.json.simple.parser.ParseException;
 import org.spongepowered.configurate.ConfigurationNode;
 
 import java.io.IOException;
-import java.net.URL;
 
-public class IPWarner extends AbstractSourceAPI {
+public class IPWarner extends AbstractSourceAPI<IPWarner.Settings> {
+    private static final JSONFields FIELDS = JSONFields.builder().field("goodIp").build();
+
     public String getName() {
         return "ipwarner";
     }
@@ -19,40 +19,52 @@ public class IPWarner extends AbstractSourceAPI {
         return true;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
-
-        ConfigurationNode sourceConfigNode = getSourceConfigNode();
-
-        String key = sourceConfigNode.node("key").getString();
-        if(key == null || key.isEmpty()) {
+    protected boolean getResultExpensive(String ip) throws APIException {
+        Settings settings = getSettings();
+        if(settings.httpsUrl == null) {
             throw new APIException(true, "Key is not defined for " + getName());
         }
 
-        JSONObject json;
+        JSONFields.Values json;
         try {
-            json = JSONWebUtil.getJSONObject(new URL("https://api.ipwarner.com/" + key + "/" + ip), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN");
-        } catch(IOException | ParseException | ClassCastException ignored) {
+            json = getJSONFields(settings.httpsUrl.format(ip), FIELDS);
+        } catch(IOException | ParseException ignored) {
             try {
-                json = JSONWebUtil.getJSONObject(new URL("http://api.ipwarner.com/" + key + "/" + ip), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN"); // Temporary (hopefully) hack
-            } catch(IOException | ParseException | ClassCastException ex) {
+                json = getJSONFields(settings.httpUrl.format(ip), FIELDS); // Temporary (hopefully) hack
+            } catch(IOException | ParseException ex) {
                 throw new APIException(false, ex);
             }
         }
-        if(json == null || json.get("goodIp") == null) {
+        if(json.get("goodIp") == null) {
             throw new APIException(false, "Could not get result from " + getName());
         }
 
-        short retVal = ((Number) json.get("goodIp")).shortValue();
+        short retVal = json.getNumber("goodIp").shortValue();
         if(retVal < 0) {
             throw new APIException(false, "Could not get result from " + getName());
         }
 
         return retVal == 1;
     }
+
+    protected Settings loadSettings(ConfigurationNode sourceConfigNode) {
+        String key = sourceConfigNode.node("key").getString();
+        if(key == null || key.isEmpty()) {
+            return new Settings(null, null);
+        }
+        return new Settings(
+                new URLTemplate("https://api.ipwarner.com/" + key + "/" + URLTemplate.IP),
+                new URLTemplate("http://api.ipwarner.com/" + key + "/" + URLTemplate.IP)
+        );
+    }
+
+    static final class Settings {
+        private final URLTemplate httpsUrl;
+        private final URLTemplate httpUrl;
+
+        private Settings(URLTemplate httpsUrl, URLTemplate httpUrl) {
+            this.httpsUrl = httpsUrl;
+            this.httpUrl = httpUrl;
+        }
+    }
 }
@@ -1,16 +1,27 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
+import me.egg82.antivpn.services.RequestBatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class ProxyCheck extends AbstractSourceAPI<ProxyCheck.Settings> {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyCheck.class);
+
+    // The most IPs proxycheck.io will take in one request
+    private static final int MAX_BATCH_SIZE = 1000;
 
-public class ProxyCheck extends AbstractSourceAPI {
     public String getName() {
         return "proxycheck";
     }
@@ -19,39 +30,111 @@ public class ProxyCheck extends AbstractSourceAPI {
         return false;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        Settings settings = getSettings();
+        if(settings.batcher.isPresent()) {
+            return getBatchedResult(settings.batcher.get(), ip);
         }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
+
+        // Results are keyed by IP
+        JSONFields fields = JSONFields.builder().field("status").field(ip, "proxy").build();
+        return getJSONResultAsync(settings.url.format(ip), fields, json -> {
+            if(json.get("status") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+
+            String status = json.getString("status");
+            if(!status.equalsIgnoreCase("ok")) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+
+            if(json.get(ip, "proxy") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+            String proxy = json.getString(ip, "proxy");
+
+            return proxy.equalsIgnoreCase("yes");
+        });
+    }
+
+    private CompletableFuture<Boolean> getBatchedResult(RequestBatcher<String, Boolean> batcher, String ip) {
+        CompletableFuture<Boolean> batched = batcher.submit(ip);
+        CompletableFuture<Boolean> retVal = new CompletableFuture<>();
+        batched.whenComplete((v, ex) -> {
+            if(ex == null) {
+                retVal.complete(v);
+            } else if(ex instanceof APIException) {
+                retVal.completeExceptionally(ex);
+            } else {
+                retVal.completeExceptionally(new APIException(false, "Could not get result from " + getName(), ex));
+            }
+        });
+        retVal.whenComplete((v, ex) -> {
+            if(retVal.isCancelled()) {
+                batched.cancel(true);
+            }
+        });
+        return retVal;
+    }
+
+    /**
+     * Looks up every IP in a batch with a single POST
+     * IPs missing from the response fail on their own without failing the rest of the batch
+     */
+    private CompletableFuture<Map<String, Boolean>> sendBatch(Set<String> ips) throws APIException {
+        JSONFields.Builder fields = JSONFields.builder().field("status");
+        for(String ip : ips) {
+            fields.field(ip, "proxy");
         }
 
-        ConfigurationNode sourceConfigNode = getSourceConfigNode();
+        return postJSONFieldsAsync(getSettings().batchUrl, Collections.singletonMap("ips", String.join(",", ips)), fields.build()).thenApply(json -> {
+            if(json.get("status") == null || !json.getString("status").equalsIgnoreCase("ok")) {
+                throw new CompletionException(new APIException(false, "Could not get result from " + getName()));
+            }
+
+            Map<String, Boolean> retVal = new HashMap<>();
+            for(String ip : ips) {
+                String proxy = json.getString(ip, "proxy");
+                if(proxy != null) {
+                    retVal.put(ip, proxy.equalsIgnoreCase("yes"));
+                }
+            }
+            return retVal;
+        });
+    }
 
+    protected Settings loadSettings(ConfigurationNode sourceConfigNode) {
         String key = sourceConfigNode.node("key").getString();
+        String keyParam = key != null && !key.isEmpty() ? "&key=" + key : "";
 
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("https://proxycheck.io/v2/" + ip + "?vpn=1" + ((key != null && !key.isEmpty()) ? "&key=" + key : "")), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN");
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, "Could not get result from " + getName());
+        ConfigurationNode batchNode = sourceConfigNode.node("batch");
+        long window = batchNode.node("window").getLong(25L);
+        if(window < 0L) {
+            logger.warn("sources." + getName() + ".batch.window cannot be < 0. Using default value.");
+            window = 25L;
         }
-        if(json == null || json.get("status") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
+        int maxSize = batchNode.node("max-size").getInt(100);
+        if(maxSize <= 0 || maxSize > MAX_BATCH_SIZE) {
+            logger.warn("sources." + getName() + ".batch.max-size must be between 1 and " + MAX_BATCH_SIZE + ". Using default value.");
+            maxSize = 100;
         }
 
-        String status = (String) json.get("status");
-        if(!status.equalsIgnoreCase("ok")) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+        return new Settings(
+                new URLTemplate("https://proxycheck.io/v2/" + URLTemplate.IP + "?vpn=1" + keyParam),
+                "https://proxycheck.io/v2/?vpn=1" + keyParam,
+                window == 0L || maxSize == 1 ? Optional.empty() : Optional.of(new RequestBatcher<>(window, maxSize, this::sendBatch))
+        );
+    }
 
-        JSONObject result = (JSONObject) json.get(ip);
-        if(result == null || result.get("proxy") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-        String proxy = (String) result.get("proxy");
+    static final class Settings {
+        private final URLTemplate url;
+        private final String batchUrl;
+        private final Optional<RequestBatcher<String, Boolean>> batcher;
 
-        return proxy.equalsIgnoreCase("yes");
+        private Settings(URLTemplate url, String batchUrl, Optional<RequestBatcher<String, Boolean>> batcher) {
+            this.url = url;
+            this.batchUrl = batchUrl;
+            this.batcher = batcher;
+        }
     }
 }
@@ -1,17 +1,17 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
 import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class Shodan extends AbstractSourceAPI<URLTemplate> {
+    // Host documents can run to hundreds of KB, but only the tags are kept
+    private static final JSONFields FIELDS = JSONFields.builder().field("tags").build();
 
-public class Shodan extends AbstractSourceAPI {
     public String getName() {
         return "shodan";
     }
@@ -20,46 +20,34 @@ public class Shodan extends AbstractSourceAPI {
         return true;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
-
-        ConfigurationNode sourceConfigNode = getSourceConfigNode();
-
-        String key = sourceConfigNode.node("key").getString();
-        if(key == null || key.isEmpty()) {
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        URLTemplate url = getSettings();
+        if(url == null) {
             throw new APIException(true, "Key is not defined for " + getName());
         }
 
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("https://api.shodan.io/shodan/host/" + ip + "?key=" + key), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN");
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-        if(json == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+        return getJSONResultAsync(url.format(ip), FIELDS, json -> {
+            List<Object> tags = json.getList("tags");
+            if(tags == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        JSONArray tags = (JSONArray) json.get("tags");
-        if(tags == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+            if(tags.isEmpty()) {
+                return false;
+            }
+            for(Object tag : tags) {
+                String t = (String) tag;
+                if(t.equalsIgnoreCase("proxy") || t.equalsIgnoreCase("vpn")) {
+                    return true;
+                }
+            }
 
-        if(tags.isEmpty()) {
             return false;
-        }
-        for(Object tag : tags) {
-            String t = (String) tag;
-            if(t.equalsIgnoreCase("proxy") || t.equalsIgnoreCase("vpn")) {
-                return true;
-            }
-        }
+        });
+    }
 
-        return false;
+    protected URLTemplate loadSettings(ConfigurationNode sourceConfigNode) {
+        String key = sourceConfigNode.node("key").getString();
+        return key == null || key.isEmpty() ? null : new URLTemplate("https://api.shodan.io/shodan/host/" + URLTemplate.IP + "?key=" + key);
     }
 }
@@ -2,19 +2,20 @@ package me.egg82.antivpn.apis.vpn;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
+import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class Teoh extends AbstractSourceAPI {
+public class Teoh extends AbstractSourceAPI<URLTemplate> {
+    private static final URLTemplate URL = new URLTemplate("https://ip.teoh.io/api/vpn/" + URLTemplate.IP);
+    private static final JSONFields FIELDS = JSONFields.builder().field("vpn_or_proxy").build();
+
     public String getName() {
         return "teoh";
     }
@@ -30,29 +31,22 @@ public class Teoh extends AbstractSourceAPI {
         threadPool.scheduleAtFixedRate(() -> requests.set(0), 0L, 24L, TimeUnit.HOURS);
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
-
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
         if(requests.getAndIncrement() >= 1000) {
             throw new APIException(true, "API calls to this source have been limited to 1,000/day as per request.");
         }
 
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("https://ip.teoh.io/api/vpn/" + ip), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN");
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, ex);
-        }
-        if(json == null || json.get("vpn_or_proxy") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
+        return getJSONResultAsync(URL.format(ip), FIELDS, json -> {
+            if(json.get("vpn_or_proxy") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
+
+            String proxy = json.getString("vpn_or_proxy");
+            return proxy.equalsIgnoreCase("yes");
+        });
+    }
 
-        String proxy = (String) json.get("vpn_or_proxy");
-        return proxy.equalsIgnoreCase("yes");
+    protected URLTemplate loadSettings(ConfigurationNode sourceConfigNode) {
+        return URL;
     }
 }
@@ -1,16 +1,15 @@
 package me.egg82.antivpn.apis.vpn;
 
 import me.egg82.antivpn.APIException;
-import me.egg82.antivpn.utils.ValidationUtil;
-import ninja.egg82.json.JSONWebUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.antivpn.apis.JSONFields;
+import me.egg82.antivpn.apis.URLTemplate;
 import org.spongepowered.configurate.ConfigurationNode;
 
-import java.io.IOException;
-import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+public class VPNBlocker extends AbstractSourceAPI<URLTemplate> {
+    private static final JSONFields FIELDS = JSONFields.builder().field("status").field("host-ip").build();
 
-public class VPNBlocker extends AbstractSourceAPI {
     public String getName() {
         return "vpnblocker";
     }
@@ -19,37 +18,27 @@ public class VPNBlocker extends AbstractSourceAPI {
         return false;
     }
 
-    public boolean getResult(String ip) throws APIException {
-        if(ip == null) {
-            throw new IllegalArgumentException("ip cannot be null.");
-        }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
+    protected CompletableFuture<Boolean> getResultExpensiveAsync(String ip) throws APIException {
+        return getJSONResultAsync(getSettings().format(ip), FIELDS, json -> {
+            if(json.get("status") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        ConfigurationNode sourceConfigNode = getSourceConfigNode();
+            String status = json.getString("status");
+            if(!status.equalsIgnoreCase("success")) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        String key = sourceConfigNode.node("key").getString();
+            if(json.get("host-ip") == null) {
+                throw new APIException(false, "Could not get result from " + getName());
+            }
 
-        JSONObject json;
-        try {
-            json = JSONWebUtil.getJSONObject(new URL("http" + ((key != null && !key.isEmpty()) ? "s" : "") + "://api.vpnblocker.net/v2/json/" + ip + ((key != null && !key.isEmpty()) ? "/" + key : "")), "GET", (int) getCachedConfig().getTimeout(), "egg82/AntiVPN");
-        } catch(IOException | ParseException | ClassCastException ex) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-        if(json == null || json.get("status") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-
-        String status = (String) json.get("status");
-        if(!status.equalsIgnoreCase("success")) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-
-        if(json.get("host-ip") == null) {
-            throw new APIException(false, "Could not get result from " + getName());
-        }
-
-        return (Boolean) json.get("host-ip");
+            return json.getBoolean("host-ip");
+        });
+    }
+
+    protected URLTemplate loadSettings(ConfigurationNode sourceConfigNode) {
+        String key = sourceConfigNode.node("key").getString();
+        return new URLTemplate("http" + ((key != null && !key.isEmpty()) ? "s" : "") + "://api.vpnblocker.net/v2/json/" + URLTemplate.IP + ((key != null && !key.isEmpty()) ? "/" + key : ""));
     }
 }
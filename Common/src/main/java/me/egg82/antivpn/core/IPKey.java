@@ -0,0 +1,339 @@
+package me.egg82.antivpn.core;
+
+import inet.ipaddr.AddressStringException;
+import inet.ipaddr.AddressValueException;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import inet.ipaddr.IncompatibleAddressException;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Optional;
+
+/**
+ * Compact, immutable key for a single IP address
+ * IPv4 is packed into an int and IPv6 into two longs, so equal addresses are always equal keys
+ * regardless of how they were written (case, zero compression, IPv4-mapped IPv6, etc)
+ */
+public abstract class IPKey {
+    private IPKey() {
+    }
+
+    /**
+     * Parses an IP address string
+     *
+     * @param ip The IP to parse
+     * @return The key for the address
+     * @throws IllegalArgumentException if the string is not a single valid IP
+     */
+    public static IPKey of(String ip) {
+        if(ip == null) {
+            throw new IllegalArgumentException("ip cannot be null.");
+        }
+
+        // Plain dotted-quads are by far the most common, so parse those directly
+        long v4 = parsePlainIPv4(ip);
+        if(v4 >= 0L) {
+            return new IPv4((int) v4);
+        }
+
+        IPAddress address;
+        try {
+            address = new IPAddressString(ip).toAddress();
+        } catch(AddressStringException | AddressValueException | IncompatibleAddressException ignored) {
+            address = null;
+        }
+        if(address == null || address.isMultiple()) {
+            throw new IllegalArgumentException("ip is invalid.");
+        }
+        return of(address.withoutPrefixLength().getBytes());
+    }
+
+    /**
+     * Parses an IP address string, for input that may not be valid such as rows read back from storage
+     *
+     * @param ip The IP to parse, or null
+     * @return The key for the address, or empty if the string is not a single valid IP
+     */
+    public static Optional<IPKey> parse(String ip) {
+        if(ip == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(of(ip));
+        } catch(IllegalArgumentException ignored) {
+            return Optional.empty();
+        }
+    }
+
+    public static IPKey of(InetAddress address) {
+        if(address == null) {
+            throw new IllegalArgumentException("address cannot be null.");
+        }
+        if(address instanceof Inet4Address) {
+            // Inet4Address's hash code is the address itself
+            return new IPv4(address.hashCode());
+        }
+        return of(address.getAddress());
+    }
+
+    public static IPKey of(byte[] bytes) {
+        if(bytes == null) {
+            throw new IllegalArgumentException("bytes cannot be null.");
+        }
+        if(bytes.length == 4) {
+            return new IPv4(getInt(bytes, 0));
+        }
+        if(bytes.length != 16) {
+            throw new IllegalArgumentException("bytes must be 4 or 16 long.");
+        }
+
+        long high = ((long) getInt(bytes, 0) << 32) | (getInt(bytes, 4) & 0xFFFFFFFFL);
+        long low = ((long) getInt(bytes, 8) << 32) | (getInt(bytes, 12) & 0xFFFFFFFFL);
+        return of(high, low);
+    }
+
+    /**
+     * Builds a key from an address as IPv6, the inverse of {@link #getHigh()} and {@link #getLow()}
+     *
+     * @param high The upper 64 bits of the address
+     * @param low The lower 64 bits of the address
+     * @return The key for the address
+     */
+    public static IPKey of(long high, long low) {
+        if(high == 0L && (low >>> 32) == 0xFFFFL) {
+            // IPv4-mapped, treat as the IPv4 address it maps to
+            return new IPv4((int) low);
+        }
+        return new IPv6(high, low);
+    }
+
+    public abstract boolean isIPv4();
+
+    /**
+     * @return The address bytes, 4 long for IPv4 and 16 long for IPv6
+     */
+    public abstract byte[] getBytes();
+
+    /**
+     * @return The address as an IPv4 int
+     * @throws IllegalStateException if this is an IPv6 key
+     */
+    public abstract int getIPv4();
+
+    /**
+     * @return The upper 64 bits of the address as IPv6, IPv4 addresses being IPv4-mapped
+     */
+    public abstract long getHigh();
+
+    /**
+     * @return The lower 64 bits of the address as IPv6, IPv4 addresses being IPv4-mapped
+     */
+    public abstract long getLow();
+
+    /**
+     * Gets the network address of the block this address is in
+     *
+     * @param prefixLength The block's prefix length
+     * @return The key for the first address in the block
+     * @throws IllegalArgumentException if the prefix length is out of range for this address family
+     */
+    public abstract IPKey toPrefix(int prefixLength);
+
+    /**
+     * Checks whether or not this address is in a block
+     *
+     * @param network Any address in the block
+     * @param prefixLength The block's prefix length
+     * @return true if both addresses are the same family and share the first prefixLength bits
+     */
+    public boolean isIn(IPKey network, int prefixLength) {
+        return isIPv4() == network.isIPv4() && toPrefix(prefixLength).equals(network.toPrefix(prefixLength));
+    }
+
+    public InetAddress toInetAddress() {
+        try {
+            return InetAddress.getByAddress(getBytes());
+        } catch(UnknownHostException ex) {
+            // Only thrown for bad array lengths
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static long parsePlainIPv4(String ip) {
+        int length = ip.length();
+        if(length < 7 || length > 15) {
+            return -1L;
+        }
+
+        long retVal = 0L;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for(int i = 0; i < length; i++) {
+            char c = ip.charAt(i);
+            if(c == '.') {
+                if(digits == 0 || ++octets > 3) {
+                    return -1L;
+                }
+                retVal = (retVal << 8) | value;
+                value = 0;
+                digits = 0;
+            } else if(c >= '0' && c <= '9') {
+                if(digits > 0 && value == 0) {
+                    return -1L; // Leading zero, let the library decide what it means
+                }
+                value = value * 10 + (c - '0');
+                if(++digits > 3 || value > 255) {
+                    return -1L;
+                }
+            } else {
+                return -1L;
+            }
+        }
+        if(octets != 3 || digits == 0) {
+            return -1L;
+        }
+        return (retVal << 8) | value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static final class IPv4 extends IPKey {
+        private final int address;
+
+        private IPv4(int address) {
+            this.address = address;
+        }
+
+        public boolean isIPv4() {
+            return true;
+        }
+
+        public byte[] getBytes() {
+            byte[] retVal = new byte[4];
+            putInt(retVal, 0, address);
+            return retVal;
+        }
+
+        public int getIPv4() {
+            return address;
+        }
+
+        public long getHigh() {
+            return 0L;
+        }
+
+        public long getLow() {
+            return 0xFFFF00000000L | (address & 0xFFFFFFFFL);
+        }
+
+        public IPKey toPrefix(int prefixLength) {
+            if(prefixLength < 0 || prefixLength > 32) {
+                throw new IllegalArgumentException("prefixLength must be between 0 and 32.");
+            }
+            int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+            return (address & mask) == address ? this : new IPv4(address & mask);
+        }
+
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof IPv4)) return false;
+            IPv4 that = (IPv4) o;
+            return address == that.address;
+        }
+
+        public int hashCode() {
+            return address;
+        }
+
+        public String toString() {
+            return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+        }
+    }
+
+    private static final class IPv6 extends IPKey {
+        private final long high;
+        private final long low;
+
+        private IPv6(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        public boolean isIPv4() {
+            return false;
+        }
+
+        public byte[] getBytes() {
+            byte[] retVal = new byte[16];
+            putInt(retVal, 0, (int) (high >>> 32));
+            putInt(retVal, 4, (int) high);
+            putInt(retVal, 8, (int) (low >>> 32));
+            putInt(retVal, 12, (int) low);
+            return retVal;
+        }
+
+        public int getIPv4() {
+            throw new IllegalStateException("Not an IPv4 address.");
+        }
+
+        public long getHigh() {
+            return high;
+        }
+
+        public long getLow() {
+            return low;
+        }
+
+        public IPKey toPrefix(int prefixLength) {
+            if(prefixLength < 0 || prefixLength > 128) {
+                throw new IllegalArgumentException("prefixLength must be between 0 and 128.");
+            }
+            long highMask = prefixLength >= 64 ? -1L : prefixLength == 0 ? 0L : -1L << (64 - prefixLength);
+            long lowMask = prefixLength <= 64 ? 0L : prefixLength == 128 ? -1L : -1L << (128 - prefixLength);
+            if((high & highMask) == high && (low & lowMask) == low) {
+                return this;
+            }
+            return new IPv6(high & highMask, low & lowMask);
+        }
+
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof IPv6)) return false;
+            IPv6 that = (IPv6) o;
+            return high == that.high && low == that.low;
+        }
+
+        public int hashCode() {
+            long h = high * 31L + low;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * The same form as {@link java.net.Inet6Address#getHostAddress()}: all eight groups, lowercase, no leading zeroes
+         * This is how IPs have always been written to storage, so it has to stay that way or existing rows won't be found
+         */
+        public String toString() {
+            StringBuilder builder = new StringBuilder(39);
+            for(int i = 0; i < 8; i++) {
+                if(i > 0) {
+                    builder.append(':');
+                }
+                long half = i < 4 ? high : low;
+                builder.append(Integer.toHexString((int) (half >>> (48 - (i % 4) * 16)) & 0xFFFF));
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package me.egg82.antivpn.core;
+
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Collection;
+
+/**
+ * Binary prefix trie of IPs and ranges, compiled once so lookups neither parse nor allocate
+ * Arbitrary ranges (eg. 1.2.3.4-1.2.3.9) are split into their covering prefix blocks on build
+ */
+public class IPRangeTrie {
+    private final Node v4Root = new Node();
+    private final Node v6Root = new Node();
+    private final int size;
+
+    private IPRangeTrie(Collection<String> entries) {
+        int count = 0;
+        for(String entry : entries) {
+            IPAddress address = new IPAddressString(entry).getAddress();
+            if(address == null) {
+                continue;
+            }
+
+            if(!address.isMultiple()) {
+                insert(address.withoutPrefixLength(), address.getBitCount(), entry);
+            } else {
+                for(IPAddress block : address.spanWithPrefixBlocks()) {
+                    Integer prefixLength = block.getPrefixLength();
+                    insert(block, prefixLength == null ? block.getBitCount() : prefixLength, entry);
+                }
+            }
+            count++;
+        }
+        this.size = count;
+    }
+
+    public static IPRangeTrie of(Collection<String> entries) {
+        if(entries == null) {
+            throw new IllegalArgumentException("entries cannot be null.");
+        }
+        return new IPRangeTrie(entries);
+    }
+
+    /**
+     * Finds the ignore entry covering an address
+     *
+     * @param address The address to look up
+     * @return The original entry string that matched, or null if none did
+     */
+    public String match(InetAddress address) {
+        if(address == null || size == 0) {
+            return null;
+        }
+
+        if(address instanceof Inet4Address) {
+            // Inet4Address's hash code is the address itself, which saves copying it out
+            int bits = address.hashCode();
+            Node node = v4Root;
+            for(int i = 0; i < 32; i++) {
+                if(node.entry != null) {
+                    return node.entry;
+                }
+                node = ((bits >>> (31 - i)) & 1) == 0 ? node.zero : node.one;
+                if(node == null) {
+                    return null;
+                }
+            }
+            return node.entry;
+        }
+
+        byte[] bytes = address.getAddress();
+        Node node = v6Root;
+        for(int i = 0; i < bytes.length * 8; i++) {
+            if(node.entry != null) {
+                return node.entry;
+            }
+            node = ((bytes[i >>> 3] >>> (7 - (i & 7))) & 1) == 0 ? node.zero : node.one;
+            if(node == null) {
+                return null;
+            }
+        }
+        return node.entry;
+    }
+
+    public boolean contains(InetAddress address) {
+        return match(address) != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void insert(IPAddress block, int prefixLength, String entry) {
+        byte[] bytes = block.getBytes();
+        Node node = block.isIPv4() ? v4Root : v6Root;
+        for(int i = 0; i < prefixLength; i++) {
+            if(node.entry != null) {
+                // Already covered by a wider entry
+                return;
+            }
+            if(((bytes[i >>> 3] >>> (7 - (i & 7))) & 1) == 0) {
+                if(node.zero == null) {
+                    node.zero = new Node();
+                }
+                node = node.zero;
+            } else {
+                if(node.one == null) {
+                    node.one = new Node();
+                }
+                node = node.one;
+            }
+        }
+        if(node.entry == null) {
+            node.entry = entry;
+            // Anything narrower is now redundant
+            node.zero = null;
+            node.one = null;
+        }
+    }
+
+    private static class Node {
+        private Node zero = null;
+        private Node one = null;
+        private String entry = null;
+    }
+}
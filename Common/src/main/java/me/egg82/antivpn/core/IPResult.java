@@ -4,11 +4,11 @@ import java.util.Objects;
 
 public class IPResult {
     private final long longIPID;
-    private final String ip;
+    private final IPKey ip;
 
     private final int hc;
 
-    public IPResult(long longIPID, String ip) {
+    public IPResult(long longIPID, IPKey ip) {
         this.longIPID = longIPID;
         this.ip = ip;
 
@@ -19,7 +19,7 @@ public class IPResult {
         return longIPID;
     }
 
-    public String getIP() {
+    public IPKey getIP() {
         return ip;
     }
 
@@ -6,14 +6,14 @@ import java.util.Optional;
 public class PostVPNResult {
     private final long id;
     private final long ipID;
-    private final String ip;
+    private final IPKey ip;
     private final Optional<Boolean> cascade;
     private final Optional<Double> consensus;
     private final long created;
 
     private final int hc;
 
-    public PostVPNResult(long id, long ipID, String ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) {
+    public PostVPNResult(long id, long ipID, IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) {
         this.id = id;
         this.ipID = ipID;
         this.ip = ip;
@@ -32,7 +32,7 @@ public class PostVPNResult {
         return ipID;
     }
 
-    public String getIP() {
+    public IPKey getIP() {
         return ip;
     }
 
@@ -5,14 +5,14 @@ import java.util.Optional;
 
 public class VPNResult {
     private final long id;
-    private final String ip;
+    private final IPKey ip;
     private final Optional<Boolean> cascade;
     private final Optional<Double> consensus;
     private final long created;
 
     private final int hc;
 
-    public VPNResult(long id, String ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) {
+    public VPNResult(long id, IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) {
         this.id = id;
         this.ip = ip;
         this.cascade = cascade;
@@ -26,7 +26,7 @@ public class VPNResult {
         return id;
     }
 
-    public String getIP() {
+    public IPKey getIP() {
         return ip;
     }
 
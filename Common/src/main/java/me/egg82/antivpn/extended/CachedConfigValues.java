@@ -4,11 +4,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import me.egg82.antivpn.apis.SourceAPI;
+import me.egg82.antivpn.core.IPRangeTrie;
 import me.egg82.antivpn.enums.VPNAlgorithmMethod;
 import me.egg82.antivpn.messaging.Messaging;
+import me.egg82.antivpn.services.OffHeapVerdictCache;
 import me.egg82.antivpn.storage.Storage;
 import me.egg82.antivpn.utils.TimeUtil;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
@@ -43,18 +46,84 @@ public class CachedConfigValues {
         return sourceCacheTime;
     }
 
+    private long sourceStaleTime = new TimeUtil.Time(1L, TimeUnit.DAYS).getMillis();
+
+    public long getSourceStaleTime() {
+        return sourceStaleTime;
+    }
+
+    private int circuitBreakerWindow = 20;
+
+    public int getCircuitBreakerWindow() {
+        return circuitBreakerWindow;
+    }
+
+    private int circuitBreakerMinCalls = 5;
+
+    public int getCircuitBreakerMinCalls() {
+        return circuitBreakerMinCalls;
+    }
+
+    private double circuitBreakerErrorRate = 0.5d;
+
+    public double getCircuitBreakerErrorRate() {
+        return circuitBreakerErrorRate;
+    }
+
+    private TimeUtil.Time circuitBreakerBackoff = new TimeUtil.Time(30L, TimeUnit.SECONDS);
+
+    public TimeUtil.Time getCircuitBreakerBackoff() {
+        return circuitBreakerBackoff;
+    }
+
+    private TimeUtil.Time circuitBreakerMaxBackoff = new TimeUtil.Time(30L, TimeUnit.MINUTES);
+
+    public TimeUtil.Time getCircuitBreakerMaxBackoff() {
+        return circuitBreakerMaxBackoff;
+    }
+
     private ImmutableSet<String> ignoredIps = ImmutableSet.of();
 
     public ImmutableSet<String> getIgnoredIps() {
         return ignoredIps;
     }
 
+    private IPRangeTrie ignoredIpMatcher = IPRangeTrie.of(ImmutableSet.of());
+
+    public IPRangeTrie getIgnoredIpMatcher() {
+        return ignoredIpMatcher;
+    }
+
     private TimeUtil.Time cacheTime = new TimeUtil.Time(1L, TimeUnit.MINUTES);
 
     public TimeUtil.Time getCacheTime() {
         return cacheTime;
     }
 
+    private File cacheFile = null;
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    private boolean preload = false;
+
+    public boolean getPreload() {
+        return preload;
+    }
+
+    private int preloadMaxResults = 10000;
+
+    public int getPreloadMaxResults() {
+        return preloadMaxResults;
+    }
+
+    private long preloadMaxAge = new TimeUtil.Time(1L, TimeUnit.HOURS).getMillis();
+
+    public long getPreloadMaxAge() {
+        return preloadMaxAge;
+    }
+
     private boolean debug = false;
 
     public boolean getDebug() {
@@ -79,6 +148,78 @@ public class CachedConfigValues {
         return timeout;
     }
 
+    private int httpPoolMaxIdle = 10;
+
+    public int getHttpPoolMaxIdle() {
+        return httpPoolMaxIdle;
+    }
+
+    private long httpPoolKeepAlive = new TimeUtil.Time(5L, TimeUnit.MINUTES).getMillis();
+
+    public long getHttpPoolKeepAlive() {
+        return httpPoolKeepAlive;
+    }
+
+    private boolean aggregation = false;
+
+    public boolean getAggregation() {
+        return aggregation;
+    }
+
+    private int aggregationIPv4Prefix = 24;
+
+    public int getAggregationIPv4Prefix() {
+        return aggregationIPv4Prefix;
+    }
+
+    private int aggregationIPv6Prefix = 64;
+
+    public int getAggregationIPv6Prefix() {
+        return aggregationIPv6Prefix;
+    }
+
+    private int aggregationMinFlagged = 3;
+
+    public int getAggregationMinFlagged() {
+        return aggregationMinFlagged;
+    }
+
+    private boolean aggregationBlockTable = false;
+
+    public boolean getAggregationBlockTable() {
+        return aggregationBlockTable;
+    }
+
+    private File aggregationBlockTableFile = null;
+
+    public File getAggregationBlockTableFile() {
+        return aggregationBlockTableFile;
+    }
+
+    private long aggregationBlockTableCleanTime = 0L;
+
+    public long getAggregationBlockTableCleanTime() {
+        return aggregationBlockTableCleanTime;
+    }
+
+    private boolean offHeapCache = false;
+
+    public boolean getOffHeapCache() {
+        return offHeapCache;
+    }
+
+    private int offHeapCacheSize = 1048576;
+
+    public int getOffHeapCacheSize() {
+        return offHeapCacheSize;
+    }
+
+    private File offHeapCacheFile = null;
+
+    public File getOffHeapCacheFile() {
+        return offHeapCacheFile;
+    }
+
     private String vpnKickMessage = "&cPlease disconnect from your proxy or VPN before re-joining!";
 
     public String getVPNKickMessage() {
@@ -103,6 +244,36 @@ public class CachedConfigValues {
         return vpnAlgorithmConsensus;
     }
 
+    private boolean vpnAlgorithmEarlyExit = false;
+
+    public boolean getVPNAlgorithmEarlyExit() {
+        return vpnAlgorithmEarlyExit;
+    }
+
+    private boolean vpnAlgorithmHedge = false;
+
+    public boolean getVPNAlgorithmHedge() {
+        return vpnAlgorithmHedge;
+    }
+
+    private long vpnAlgorithmHedgeDelay = -1L;
+
+    public long getVPNAlgorithmHedgeDelay() {
+        return vpnAlgorithmHedgeDelay;
+    }
+
+    private boolean vpnAlgorithmAdaptive = false;
+
+    public boolean getVPNAlgorithmAdaptive() {
+        return vpnAlgorithmAdaptive;
+    }
+
+    private ImmutableSet<String> vpnAlgorithmAdaptivePinned = ImmutableSet.of();
+
+    public ImmutableSet<String> getVPNAlgorithmAdaptivePinned() {
+        return vpnAlgorithmAdaptivePinned;
+    }
+
     public static CachedConfigValues.Builder builder() {
         return new CachedConfigValues.Builder();
     }
@@ -153,11 +324,73 @@ public class CachedConfigValues {
             return this;
         }
 
+        public CachedConfigValues.Builder sourceStaleTime(TimeUtil.Time value) {
+            if(value == null) {
+                throw new IllegalArgumentException("value cannot be null.");
+            }
+            if(value.getMillis() < 0L) {
+                throw new IllegalArgumentException("value cannot be < 0.");
+            }
+
+            values.sourceStaleTime = value.getMillis();
+            return this;
+        }
+
+        public CachedConfigValues.Builder circuitBreakerWindow(int value) {
+            if(value <= 0) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+            values.circuitBreakerWindow = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder circuitBreakerMinCalls(int value) {
+            if(value <= 0) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+            values.circuitBreakerMinCalls = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder circuitBreakerErrorRate(double value) {
+            if(value <= 0.0d) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+            if(value > 1.0d) {
+                throw new IllegalArgumentException("value cannot be > 1.");
+            }
+            values.circuitBreakerErrorRate = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder circuitBreakerBackoff(TimeUtil.Time value) {
+            if(value == null) {
+                throw new IllegalArgumentException("value cannot be null.");
+            }
+            if(value.getMillis() <= 0L) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+            values.circuitBreakerBackoff = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder circuitBreakerMaxBackoff(TimeUtil.Time value) {
+            if(value == null) {
+                throw new IllegalArgumentException("value cannot be null.");
+            }
+            if(value.getMillis() <= 0L) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+            values.circuitBreakerMaxBackoff = value;
+            return this;
+        }
+
         public CachedConfigValues.Builder ignoredIps(Collection<String> value) {
             if(value == null) {
                 throw new IllegalArgumentException("value cannot be null.");
             }
             values.ignoredIps = ImmutableSet.copyOf(value);
+            values.ignoredIpMatcher = IPRangeTrie.of(values.ignoredIps);
             return this;
         }
 
@@ -173,6 +406,36 @@ public class CachedConfigValues {
             return this;
         }
 
+        public CachedConfigValues.Builder cacheFile(File value) {
+            values.cacheFile = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder preload(boolean value) {
+            values.preload = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder preloadMaxResults(int value) {
+            if(value <= 0) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+            values.preloadMaxResults = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder preloadMaxAge(TimeUtil.Time value) {
+            if(value == null) {
+                throw new IllegalArgumentException("value cannot be null.");
+            }
+            if(value.getMillis() <= 0L) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+
+            values.preloadMaxAge = value.getMillis();
+            return this;
+        }
+
         public CachedConfigValues.Builder threads(int value) {
             if(value <= 1) {
                 throw new IllegalArgumentException("value cannot be <= 1.");
@@ -191,6 +454,106 @@ public class CachedConfigValues {
             return this;
         }
 
+        public CachedConfigValues.Builder httpPoolMaxIdle(int value) {
+            if(value <= 0) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+
+            values.httpPoolMaxIdle = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder httpPoolKeepAlive(TimeUtil.Time value) {
+            if(value == null) {
+                throw new IllegalArgumentException("value cannot be null.");
+            }
+            if(value.getMillis() <= 0L) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+
+            values.httpPoolKeepAlive = value.getMillis();
+            return this;
+        }
+
+        public CachedConfigValues.Builder aggregation(boolean value) {
+            values.aggregation = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder aggregationIPv4Prefix(int value) {
+            if(value < 1 || value > 32) {
+                throw new IllegalArgumentException("value must be between 1 and 32.");
+            }
+
+            values.aggregationIPv4Prefix = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder aggregationIPv6Prefix(int value) {
+            if(value < 1 || value > 128) {
+                throw new IllegalArgumentException("value must be between 1 and 128.");
+            }
+
+            values.aggregationIPv6Prefix = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder aggregationMinFlagged(int value) {
+            if(value <= 0) {
+                throw new IllegalArgumentException("value cannot be <= 0.");
+            }
+
+            values.aggregationMinFlagged = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder aggregationBlockTable(boolean value) {
+            values.aggregationBlockTable = value;
+            return this;
+        }
+
+        /**
+         * @param value The file backing the block table, or null to keep it in memory only
+         */
+        public CachedConfigValues.Builder aggregationBlockTableFile(File value) {
+            values.aggregationBlockTableFile = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder aggregationBlockTableCleanTime(TimeUtil.Time value) {
+            if(value == null) {
+                throw new IllegalArgumentException("value cannot be null.");
+            }
+            if(value.getMillis() < 0L) {
+                throw new IllegalArgumentException("value cannot be < 0.");
+            }
+
+            values.aggregationBlockTableCleanTime = value.getMillis();
+            return this;
+        }
+
+        public CachedConfigValues.Builder offHeapCache(boolean value) {
+            values.offHeapCache = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder offHeapCacheSize(int value) {
+            if(value < OffHeapVerdictCache.MIN_CAPACITY || value > OffHeapVerdictCache.MAX_CAPACITY) {
+                throw new IllegalArgumentException("value must be between " + OffHeapVerdictCache.MIN_CAPACITY + " and " + OffHeapVerdictCache.MAX_CAPACITY + ".");
+            }
+
+            values.offHeapCacheSize = value;
+            return this;
+        }
+
+        /**
+         * @param value The file backing the off-heap cache, or null to keep it in memory only
+         */
+        public CachedConfigValues.Builder offHeapCacheFile(File value) {
+            values.offHeapCacheFile = value;
+            return this;
+        }
+
         public CachedConfigValues.Builder vpnKickMessage(String value) {
             if(value == null) {
                 throw new IllegalArgumentException("value cannot be null.");
@@ -226,6 +589,37 @@ public class CachedConfigValues {
             return this;
         }
 
+        public CachedConfigValues.Builder vpnAlgorithmEarlyExit(boolean value) {
+            values.vpnAlgorithmEarlyExit = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder vpnAlgorithmHedge(boolean value) {
+            values.vpnAlgorithmHedge = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder vpnAlgorithmHedgeDelay(long value) {
+            if(value < -1L) {
+                throw new IllegalArgumentException("value cannot be < -1.");
+            }
+            values.vpnAlgorithmHedgeDelay = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder vpnAlgorithmAdaptive(boolean value) {
+            values.vpnAlgorithmAdaptive = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder vpnAlgorithmAdaptivePinned(Collection<String> value) {
+            if(value == null) {
+                throw new IllegalArgumentException("value cannot be null.");
+            }
+            values.vpnAlgorithmAdaptivePinned = ImmutableSet.copyOf(value);
+            return this;
+        }
+
         public CachedConfigValues build() {
             return values;
         }
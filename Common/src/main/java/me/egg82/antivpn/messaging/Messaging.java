@@ -1,5 +1,7 @@
 package me.egg82.antivpn.messaging;
 
+import me.egg82.antivpn.core.IPKey;
+
 import java.util.Optional;
 import java.util.UUID;
 
@@ -8,9 +10,11 @@ public interface Messaging {
 
     boolean isClosed();
 
-    void sendIP(UUID messageID, long longIPID, String ip) throws MessagingException;
+    void sendIP(UUID messageID, long longIPID, IPKey ip) throws MessagingException;
 
     void sendPlayer(UUID messageID, long longPlayerID, UUID playerID) throws MessagingException;
 
-    void sendPostVPN(UUID messageID, long id, long longIPID, String ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) throws MessagingException;
+    void sendPostVPN(UUID messageID, long id, long longIPID, IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) throws MessagingException;
+
+    void sendInvalidate(UUID messageID, IPKey network, int prefixLength) throws MessagingException;
 }
@@ -8,6 +8,7 @@ import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.LongString;
 import com.rabbitmq.client.RecoverableChannel;
 import com.rabbitmq.client.RecoverableConnection;
+import me.egg82.antivpn.core.IPKey;
 import me.egg82.antivpn.services.MessagingHandler;
 import me.egg82.antivpn.utils.ValidationUtil;
 import ninja.egg82.analytics.utils.JSONUtil;
@@ -153,23 +154,35 @@ public class RabbitMQ implements Messaging {
             }
         };
         postVPNChannel.basicConsume(postVPNQueue, true, postVPNConsumer);
+
+        RecoverableChannel invalidateChannel = getChannel();
+        invalidateChannel.exchangeDeclare("antivpn-invalidate", ExchangeType.FANOUT.getType(), true);
+        String invalidateQueue = invalidateChannel.queueDeclare().getQueue();
+        invalidateChannel.queueBind(invalidateQueue, "antivpn-invalidate", "");
+        Consumer invalidateConsumer = new DefaultConsumer(invalidateChannel) {
+            public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) throws IOException {
+                try {
+                    receiveInvalidate(props, new String(body, props.getContentEncoding()));
+                } catch(ParseException | ClassCastException ex) {
+                    logger.warn("Could not parse incoming data.", ex);
+                }
+            }
+        };
+        invalidateChannel.basicConsume(invalidateQueue, true, invalidateConsumer);
     }
 
-    public void sendIP(UUID messageID, long longIPID, String ip) throws MessagingException {
+    public void sendIP(UUID messageID, long longIPID, IPKey ip) throws MessagingException {
         if(messageID == null) {
             throw new IllegalArgumentException("messageID cannot be null.");
         }
         if(ip == null) {
             throw new IllegalArgumentException("ip cannot be null.");
         }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
 
         try(RecoverableChannel channel = getChannel()) {
             JSONObject obj = new JSONObject();
             obj.put("longID", longIPID);
-            obj.put("ip", ip);
+            obj.put("ip", ip.toString());
             AMQP.BasicProperties props = getProperties(DeliveryMode.PERSISTENT);
             channel.exchangeDeclare("antivpn-ip", ExchangeType.FANOUT.getType(), true);
             channel.basicPublish("antivpn-ip", "", props, obj.toJSONString().getBytes(props.getContentEncoding()));
@@ -202,16 +215,13 @@ public class RabbitMQ implements Messaging {
         }
     }
 
-    public void sendPostVPN(UUID messageID, long id, long longIPID, String ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) throws MessagingException {
+    public void sendPostVPN(UUID messageID, long id, long longIPID, IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) throws MessagingException {
         if(messageID == null) {
             throw new IllegalArgumentException("messageID cannot be null.");
         }
         if(ip == null) {
             throw new IllegalArgumentException("ip cannot be null.");
         }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
         if(cascade == null) {
             throw new IllegalArgumentException("cascade cannot be null.");
         }
@@ -223,7 +233,7 @@ public class RabbitMQ implements Messaging {
             JSONObject obj = new JSONObject();
             obj.put("id", id);
             obj.put("longIPID", longIPID);
-            obj.put("ip", ip);
+            obj.put("ip", ip.toString());
             obj.put("cascade", cascade.orElse(null));
             obj.put("consensus", consensus.orElse(null));
             obj.put("created", created);
@@ -237,6 +247,28 @@ public class RabbitMQ implements Messaging {
         }
     }
 
+    public void sendInvalidate(UUID messageID, IPKey network, int prefixLength) throws MessagingException {
+        if(messageID == null) {
+            throw new IllegalArgumentException("messageID cannot be null.");
+        }
+        if(network == null) {
+            throw new IllegalArgumentException("network cannot be null.");
+        }
+
+        try(RecoverableChannel channel = getChannel()) {
+            JSONObject obj = new JSONObject();
+            obj.put("ip", network.toString());
+            obj.put("prefix", prefixLength);
+            AMQP.BasicProperties props = getProperties(DeliveryMode.PERSISTENT);
+            channel.exchangeDeclare("antivpn-invalidate", ExchangeType.FANOUT.getType(), true);
+            channel.basicPublish("antivpn-invalidate", "", props, obj.toJSONString().getBytes(props.getContentEncoding()));
+        } catch(IOException ex) {
+            throw new MessagingException(false, ex);
+        } catch(TimeoutException ex) {
+            throw new MessagingException(true, ex);
+        }
+    }
+
     private AMQP.BasicProperties getProperties(DeliveryMode deliveryMode) {
         Map<String, Object> headers = new HashMap<>();
         headers.put("sender", serverID);
@@ -271,14 +303,15 @@ public class RabbitMQ implements Messaging {
 
         JSONObject obj = JSONUtil.parseObject(json);
         String ip = (String) obj.get("ip");
-        if(!ValidationUtil.isValidIp(ip)) {
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
             logger.warn("Non-valid IP received in IP: \"" + ip + "\".");
             return;
         }
 
         handler.ipCallback(
                 UUID.fromString(props.getMessageId()),
-                ip,
+                ipKey.get(),
                 ((Number) obj.get("longID")).longValue(),
                 this
         );
@@ -339,7 +372,8 @@ public class RabbitMQ implements Messaging {
 
         JSONObject obj = JSONUtil.parseObject(json);
         String ip = (String) obj.get("ip");
-        if(!ValidationUtil.isValidIp(ip)) {
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
             logger.warn("Non-valid IP received in post VPN: \"" + ip + "\".");
             return;
         }
@@ -348,7 +382,7 @@ public class RabbitMQ implements Messaging {
                 UUID.fromString(props.getMessageId()),
                 ((Number) obj.get("id")).longValue(),
                 ((Number) obj.get("longIPID")).longValue(),
-                ip,
+                ipKey.get(),
                 obj.get("cascade") == null ? Optional.empty() : Optional.of((Boolean) obj.get("cascade")),
                 obj.get("consensus") == null ? Optional.empty() : Optional.of(((Number) obj.get("consensus")).doubleValue()),
                 ((Number) obj.get("created")).longValue(),
@@ -356,6 +390,47 @@ public class RabbitMQ implements Messaging {
         );
     }
 
+    private void receiveInvalidate(AMQP.BasicProperties props, String json) throws UnsupportedEncodingException, ParseException, ClassCastException {
+        if(props.getHeaders() == null || props.getHeaders().isEmpty()) {
+            logger.warn("Properties for received invalidate was null or empty.");
+            return;
+        }
+        String sender = new String(((LongString) props.getHeaders().get("sender")).getBytes(), props.getContentEncoding());
+        if(!ValidationUtil.isValidUuid(sender)) {
+            logger.warn("Non-valid sender received in invalidate: \"" + sender + "\".");
+            return;
+        }
+        if(serverID.equals(sender)) {
+            return;
+        }
+
+        if(!ValidationUtil.isValidUuid(props.getMessageId())) {
+            logger.warn("Non-valid message ID received in invalidate: \"" + props.getMessageId() + "\".");
+            return;
+        }
+
+        JSONObject obj = JSONUtil.parseObject(json);
+        String ip = (String) obj.get("ip");
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
+            logger.warn("Non-valid IP received in invalidate: \"" + ip + "\".");
+            return;
+        }
+        IPKey network = ipKey.get();
+        int prefixLength = ((Number) obj.get("prefix")).intValue();
+        if(prefixLength < 0 || prefixLength > (network.isIPv4() ? 32 : 128)) {
+            logger.warn("Non-valid prefix length received in invalidate: \"" + prefixLength + "\".");
+            return;
+        }
+
+        handler.invalidateCallback(
+                UUID.fromString(props.getMessageId()),
+                network,
+                prefixLength,
+                this
+        );
+    }
+
     private RecoverableConnection getConnection() throws IOException, TimeoutException {
         return (RecoverableConnection) factory.newConnection();
     }
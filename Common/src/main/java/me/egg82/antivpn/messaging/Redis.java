@@ -1,6 +1,7 @@
 package me.egg82.antivpn.messaging;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.egg82.antivpn.core.IPKey;
 import me.egg82.antivpn.services.MessagingHandler;
 import me.egg82.antivpn.utils.ValidationUtil;
 import ninja.egg82.analytics.utils.JSONUtil;
@@ -122,7 +123,8 @@ public class Redis extends JedisPubSub implements Messaging {
                         redis.subscribe(result,
                                 "antivpn-ip",
                                 "antivpn-player",
-                                "antivpn-post-vpn"
+                                "antivpn-post-vpn",
+                                "antivpn-invalidate"
                         );
                     } catch(JedisException ex) {
                         if(!result.isClosed()) {
@@ -159,21 +161,18 @@ public class Redis extends JedisPubSub implements Messaging {
         }
     }
 
-    public void sendIP(UUID messageID, long longIPID, String ip) throws MessagingException {
+    public void sendIP(UUID messageID, long longIPID, IPKey ip) throws MessagingException {
         if(messageID == null) {
             throw new IllegalArgumentException("messageID cannot be null.");
         }
         if(ip == null) {
             throw new IllegalArgumentException("ip cannot be null.");
         }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
 
         try(Jedis redis = pool.getResource()) {
             JSONObject obj = createJSON(messageID);
             obj.put("longID", longIPID);
-            obj.put("ip", ip);
+            obj.put("ip", ip.toString());
             redis.publish("antivpn-ip", obj.toJSONString());
         } catch(JedisException ex) {
             throw new MessagingException(isAutomaticallyRecoverable(ex), ex);
@@ -198,16 +197,13 @@ public class Redis extends JedisPubSub implements Messaging {
         }
     }
 
-    public void sendPostVPN(UUID messageID, long id, long longIPID, String ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) throws MessagingException {
+    public void sendPostVPN(UUID messageID, long id, long longIPID, IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) throws MessagingException {
         if(messageID == null) {
             throw new IllegalArgumentException("messageID cannot be null.");
         }
         if(ip == null) {
             throw new IllegalArgumentException("ip cannot be null.");
         }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
         if(cascade == null) {
             throw new IllegalArgumentException("cascade cannot be null.");
         }
@@ -219,7 +215,7 @@ public class Redis extends JedisPubSub implements Messaging {
             JSONObject obj = createJSON(messageID);
             obj.put("id", id);
             obj.put("longIPID", longIPID);
-            obj.put("ip", ip);
+            obj.put("ip", ip.toString());
             obj.put("cascade", cascade.orElse(null));
             obj.put("consensus", consensus.orElse(null));
             obj.put("created", created);
@@ -229,6 +225,24 @@ public class Redis extends JedisPubSub implements Messaging {
         }
     }
 
+    public void sendInvalidate(UUID messageID, IPKey network, int prefixLength) throws MessagingException {
+        if(messageID == null) {
+            throw new IllegalArgumentException("messageID cannot be null.");
+        }
+        if(network == null) {
+            throw new IllegalArgumentException("network cannot be null.");
+        }
+
+        try(Jedis redis = pool.getResource()) {
+            JSONObject obj = createJSON(messageID);
+            obj.put("ip", network.toString());
+            obj.put("prefix", prefixLength);
+            redis.publish("antivpn-invalidate", obj.toJSONString());
+        } catch(JedisException ex) {
+            throw new MessagingException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
     private JSONObject createJSON(UUID messageID) {
         JSONObject retVal = new JSONObject();
         retVal.put("sender", serverID);
@@ -258,6 +272,9 @@ public class Redis extends JedisPubSub implements Messaging {
                 case "antivpn-post-vpn":
                     receivePostVPN(message);
                     break;
+                case "antivpn-invalidate":
+                    receiveInvalidate(message);
+                    break;
                 default:
                     logger.warn("Got data from channel that should not exist.");
                     break;
@@ -285,14 +302,15 @@ public class Redis extends JedisPubSub implements Messaging {
         }
 
         String ip = (String) obj.get("ip");
-        if(!ValidationUtil.isValidIp(ip)) {
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
             logger.warn("Non-valid IP received in IP: \"" + ip + "\".");
             return;
         }
 
         handler.ipCallback(
                 UUID.fromString(messageID),
-                ip,
+                ipKey.get(),
                 ((Number) obj.get("longID")).longValue(),
                 this
         );
@@ -347,7 +365,8 @@ public class Redis extends JedisPubSub implements Messaging {
         }
 
         String ip = (String) obj.get("ip");
-        if(!ValidationUtil.isValidIp(ip)) {
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
             logger.warn("Non-valid IP received in post VPN: \"" + ip + "\".");
             return;
         }
@@ -356,11 +375,49 @@ public class Redis extends JedisPubSub implements Messaging {
                 UUID.fromString(messageID),
                 ((Number) obj.get("id")).longValue(),
                 ((Number) obj.get("longIPID")).longValue(),
-                ip,
+                ipKey.get(),
                 obj.get("cascade") == null ? Optional.empty() : Optional.of((Boolean) obj.get("cascade")),
                 obj.get("consensus") == null ? Optional.empty() : Optional.of(((Number) obj.get("consensus")).doubleValue()),
                 ((Number) obj.get("created")).longValue(),
                 this
         );
     }
+
+    private void receiveInvalidate(String json) throws ParseException, ClassCastException {
+        JSONObject obj = JSONUtil.parseObject(json);
+        String sender = (String) obj.get("sender");
+        if(!ValidationUtil.isValidUuid(sender)) {
+            logger.warn("Non-valid sender received in invalidate: \"" + sender + "\".");
+            return;
+        }
+        if(serverID.equals(sender)) {
+            return;
+        }
+
+        String messageID = (String) obj.get("messageID");
+        if(!ValidationUtil.isValidUuid(messageID)) {
+            logger.warn("Non-valid message ID received in invalidate: \"" + messageID + "\".");
+            return;
+        }
+
+        String ip = (String) obj.get("ip");
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
+            logger.warn("Non-valid IP received in invalidate: \"" + ip + "\".");
+            return;
+        }
+        IPKey network = ipKey.get();
+        int prefixLength = ((Number) obj.get("prefix")).intValue();
+        if(prefixLength < 0 || prefixLength > (network.isIPv4() ? 32 : 128)) {
+            logger.warn("Non-valid prefix length received in invalidate: \"" + prefixLength + "\".");
+            return;
+        }
+
+        handler.invalidateCallback(
+                UUID.fromString(messageID),
+                network,
+                prefixLength,
+                this
+        );
+    }
 }
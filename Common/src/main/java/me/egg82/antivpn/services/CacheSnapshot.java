@@ -0,0 +1,155 @@
+package me.egg82.antivpn.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+import me.egg82.antivpn.core.IPKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the in-memory verdict caches to a compact binary file and streams them back in
+ * Each entry is stored with the time it expires at, so entries keep their original lifetime across restarts
+ */
+public class CacheSnapshot {
+    private static final long MAGIC = 0x4156504E43414348L; // "AVPNCACH"
+    private static final int VERSION = 1;
+
+    private static final byte END = 0;
+    private static final byte CASCADE = 1;
+    private static final byte CONSENSUS = 2;
+
+    private CacheSnapshot() {
+    }
+
+    /**
+     * Writes both caches to a file, replacing it atomically
+     *
+     * @param file The file to write to
+     * @param cascade The cascade cache, which must use variable expiration
+     * @param consensus The consensus cache, which must use variable expiration
+     * @return The number of entries written
+     * @throws IOException if the file could not be written
+     */
+    public static int save(File file, Cache<IPKey, Boolean> cascade, Cache<IPKey, Double> consensus) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create parent directory structure.");
+        }
+
+        Policy.VarExpiration<IPKey, Boolean> cascadeExpiration = getExpiration(cascade);
+        Policy.VarExpiration<IPKey, Double> consensusExpiration = getExpiration(consensus);
+
+        File tmpFile = new File(parent, file.getName() + ".tmp");
+        long now = System.currentTimeMillis();
+        int retVal = 0;
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+
+            for(Map.Entry<IPKey, Boolean> kvp : cascade.asMap().entrySet()) {
+                OptionalLong remaining = cascadeExpiration.getExpiresAfter(kvp.getKey(), TimeUnit.MILLISECONDS);
+                if(!remaining.isPresent() || remaining.getAsLong() <= 0L) {
+                    continue;
+                }
+                out.writeByte(CASCADE);
+                writeKey(out, kvp.getKey(), now + remaining.getAsLong());
+                out.writeBoolean(kvp.getValue());
+                retVal++;
+            }
+            for(Map.Entry<IPKey, Double> kvp : consensus.asMap().entrySet()) {
+                OptionalLong remaining = consensusExpiration.getExpiresAfter(kvp.getKey(), TimeUnit.MILLISECONDS);
+                if(!remaining.isPresent() || remaining.getAsLong() <= 0L) {
+                    continue;
+                }
+                out.writeByte(CONSENSUS);
+                writeKey(out, kvp.getKey(), now + remaining.getAsLong());
+                out.writeDouble(kvp.getValue());
+                retVal++;
+            }
+
+            out.writeByte(END);
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return retVal;
+    }
+
+    /**
+     * Streams a file back into both caches, dropping anything that's already expired
+     * A file written by a different version is ignored
+     *
+     * @param file The file to read from
+     * @param cascade The cascade cache, which must use variable expiration
+     * @param consensus The consensus cache, which must use variable expiration
+     * @param maxAgeMillis The longest an entry may live for from now, in case the cache time was lowered
+     * @return The number of entries loaded
+     * @throws IOException if the file could not be read or is corrupt
+     */
+    public static int load(File file, Cache<IPKey, Boolean> cascade, Cache<IPKey, Double> consensus, long maxAgeMillis) throws IOException {
+        if(!file.exists()) {
+            return 0;
+        }
+
+        Policy.VarExpiration<IPKey, Boolean> cascadeExpiration = getExpiration(cascade);
+        Policy.VarExpiration<IPKey, Double> consensusExpiration = getExpiration(consensus);
+
+        long now = System.currentTimeMillis();
+        int retVal = 0;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readLong() != MAGIC || in.readInt() != VERSION) {
+                return 0;
+            }
+
+            byte type;
+            while((type = in.readByte()) != END) {
+                if(type != CASCADE && type != CONSENSUS) {
+                    throw new IOException("Unknown entry type " + type + ".");
+                }
+
+                IPKey key = IPKey.of(in.readLong(), in.readLong());
+                long remaining = Math.min(in.readLong() - now, maxAgeMillis);
+                if(type == CASCADE) {
+                    boolean value = in.readBoolean();
+                    if(remaining > 0L) {
+                        cascadeExpiration.put(key, value, remaining, TimeUnit.MILLISECONDS);
+                        retVal++;
+                    }
+                } else {
+                    double value = in.readDouble();
+                    if(remaining > 0L) {
+                        consensusExpiration.put(key, value, remaining, TimeUnit.MILLISECONDS);
+                        retVal++;
+                    }
+                }
+            }
+        }
+        return retVal;
+    }
+
+    private static void writeKey(DataOutputStream out, IPKey key, long expires) throws IOException {
+        out.writeLong(key.getHigh());
+        out.writeLong(key.getLow());
+        out.writeLong(expires);
+    }
+
+    private static <V> Policy.VarExpiration<IPKey, V> getExpiration(Cache<IPKey, V> cache) {
+        Optional<Policy.VarExpiration<IPKey, V>> retVal = cache.policy().expireVariably();
+        if(!retVal.isPresent()) {
+            throw new IllegalArgumentException("cache must use variable expiration.");
+        }
+        return retVal.get();
+    }
+}
@@ -0,0 +1,170 @@
+package me.egg82.antivpn.services;
+
+public class CircuitBreaker {
+    private final int minCalls;
+    private final double errorRate;
+    private final long backoff;
+    private final long maxBackoff;
+
+    private final boolean[] window;
+    private int index = 0;
+    private int count = 0;
+    private int failures = 0;
+
+    private State state = State.CLOSED;
+    private long openUntil = 0L;
+    private int trips = 0;
+    private boolean probing = false;
+
+    public CircuitBreaker(int windowSize, int minCalls, double errorRate, long backoff, long maxBackoff) {
+        if(windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize cannot be <= 0.");
+        }
+        if(minCalls <= 0 || minCalls > windowSize) {
+            throw new IllegalArgumentException("minCalls must be between 1 and windowSize.");
+        }
+        if(errorRate <= 0.0d || errorRate > 1.0d) {
+            throw new IllegalArgumentException("errorRate must be > 0 and <= 1.");
+        }
+        if(backoff <= 0L) {
+            throw new IllegalArgumentException("backoff cannot be <= 0.");
+        }
+        if(maxBackoff < backoff) {
+            throw new IllegalArgumentException("maxBackoff cannot be < backoff.");
+        }
+
+        this.window = new boolean[windowSize];
+        this.minCalls = minCalls;
+        this.errorRate = errorRate;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Checks whether or not a call would currently be let through, without claiming the half-open probe
+     *
+     * @return true if a call would be permitted, false if the breaker is open or a probe is already in-flight
+     */
+    public synchronized boolean isCallPermitted() {
+        switch(state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.currentTimeMillis() >= openUntil;
+            default:
+                return !probing;
+        }
+    }
+
+    /**
+     * Claims permission for a call
+     * Once the backoff has elapsed a single caller is let through as the half-open probe
+     *
+     * @return true if the call may proceed, false if it should be skipped
+     */
+    public synchronized boolean tryAcquire() {
+        switch(state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if(System.currentTimeMillis() < openUntil) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if(probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if(state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            trips = 0;
+            probing = false;
+            resetWindow();
+        } else if(state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a failed call
+     *
+     * @return true if this failure opened the breaker
+     */
+    public synchronized boolean onFailure() {
+        if(state == State.HALF_OPEN) {
+            // Failed probe, back off for longer
+            open();
+            return true;
+        }
+        if(state == State.OPEN) {
+            // Call started before the breaker opened
+            return false;
+        }
+
+        record(true);
+        if(count >= minCalls && (double) failures / (double) count >= errorRate) {
+            open();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a call that was abandoned before it finished
+     * Neither counts for nor against the source, but frees the half-open probe
+     */
+    public synchronized void onCancel() {
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        if(state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void open() {
+        trips++;
+        long delay = Math.min(maxBackoff, backoff << Math.min(trips - 1, 30));
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + delay;
+        probing = false;
+        resetWindow();
+    }
+
+    private void record(boolean failure) {
+        if(count == window.length) {
+            if(window[index]) {
+                failures--;
+            }
+        } else {
+            count++;
+        }
+        window[index] = failure;
+        if(failure) {
+            failures++;
+        }
+        index = (index + 1) % window.length;
+    }
+
+    private void resetWindow() {
+        index = 0;
+        count = 0;
+        failures = 0;
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+}
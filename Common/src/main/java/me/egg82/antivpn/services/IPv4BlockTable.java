@@ -0,0 +1,219 @@
+package me.egg82.antivpn.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Off-heap table holding a two-bit result for every IPv4 /24 block (4MB in total)
+ * Optionally backed by a memory-mapped file so results survive restarts
+ * The whole table is wiped once it's older than its max age, so nothing in it outlives the source cache
+ *
+ * Clean blocks are only answered from if a clean max age is set, and are forgotten on that much shorter clock
+ * so a block that starts hosting VPNs is looked up again soon. Otherwise they're kept only to mark conflicts
+ */
+public class IPv4BlockTable {
+    private static final int BLOCKS = 1 << 24;
+    private static final int HEADER_SIZE = 8; // Creation time
+    private static final int SIZE = HEADER_SIZE + BLOCKS / 4;
+
+    private final ByteBuffer buffer;
+    private final File file;
+    private final long maxAge;
+    private final long cleanMaxAge;
+
+    private volatile long created;
+    private volatile long cleanCreated;
+
+    // Writes are read-modify-write on a shared byte
+    private final Object[] locks = new Object[64];
+
+    /**
+     * @param file The file backing the table, or null to keep it in memory only
+     * @param maxAgeMillis How long before the whole table is wiped
+     * @param cleanMaxAgeMillis How long clean blocks are answered from before they're forgotten, or 0 to never answer from them
+     * @throws IOException if the file could not be mapped
+     */
+    public IPv4BlockTable(File file, long maxAgeMillis, long cleanMaxAgeMillis) throws IOException {
+        if(maxAgeMillis <= 0L) {
+            throw new IllegalArgumentException("maxAgeMillis cannot be <= 0.");
+        }
+        if(cleanMaxAgeMillis < 0L) {
+            throw new IllegalArgumentException("cleanMaxAgeMillis cannot be < 0.");
+        }
+
+        this.file = file;
+        this.maxAge = maxAgeMillis;
+        this.cleanMaxAge = cleanMaxAgeMillis;
+        for(int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        if(file == null) {
+            buffer = ByteBuffer.allocateDirect(SIZE);
+        } else {
+            File parent = file.getParentFile();
+            if(parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Could not create parent directory structure.");
+            }
+            // The mapping stays valid after the channel is closed
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, SIZE);
+            }
+        }
+
+        created = buffer.getLong(0);
+        if(created <= 0L || isExpired(System.currentTimeMillis())) {
+            clear();
+        } else {
+            // There's no telling how old clean blocks kept in the file are
+            forgetClean();
+        }
+    }
+
+    public Result getResult(int ipv4) {
+        long now = System.currentTimeMillis();
+        if(isExpired(now)) {
+            expire();
+            return Result.UNKNOWN;
+        }
+
+        int block = ipv4 >>> 8;
+        Result retVal = Result.values[(buffer.get(HEADER_SIZE + (block >>> 2)) >>> ((block & 3) << 1)) & 3];
+        if(retVal != Result.CLEAN) {
+            return retVal;
+        }
+        if(cleanMaxAge <= 0L) {
+            return Result.UNKNOWN;
+        }
+        if(now - cleanCreated > cleanMaxAge) {
+            expireClean();
+            return Result.UNKNOWN;
+        }
+        return retVal;
+    }
+
+    /**
+     * Records a result for every /24 block in a range
+     * A block that gets conflicting results is marked as mixed and no longer answered from
+     *
+     * @param ipv4 Any address in the range
+     * @param prefixLength The range's prefix length, which must be <= 24
+     * @param vpn Whether or not the range was found to be a VPN
+     */
+    public void record(int ipv4, int prefixLength, boolean vpn) {
+        if(prefixLength < 0 || prefixLength > 24) {
+            throw new IllegalArgumentException("prefixLength must be between 0 and 24.");
+        }
+
+        int first = prefixLength == 0 ? 0 : (ipv4 >>> 8) & (-1 << (24 - prefixLength));
+        int count = 1 << (24 - prefixLength);
+        Result value = vpn ? Result.VPN : Result.CLEAN;
+        for(int block = first; block < first + count; block++) {
+            set(block, value);
+        }
+    }
+
+    /**
+     * Resets every /24 block overlapping a range back to unknown
+     *
+     * @param ipv4 Any address in the range
+     * @param prefixLength The range's prefix length
+     */
+    public void forget(int ipv4, int prefixLength) {
+        if(prefixLength < 0 || prefixLength > 32) {
+            throw new IllegalArgumentException("prefixLength must be between 0 and 32.");
+        }
+
+        int blockPrefix = Math.min(prefixLength, 24);
+        int first = blockPrefix == 0 ? 0 : (ipv4 >>> 8) & (-1 << (24 - blockPrefix));
+        int count = 1 << (24 - blockPrefix);
+        for(int block = first; block < first + count; block++) {
+            int index = HEADER_SIZE + (block >>> 2);
+            int shift = (block & 3) << 1;
+            synchronized(locks[(block >>> 2) & (locks.length - 1)]) {
+                buffer.put(index, (byte) (buffer.get(index) & ~(3 << shift)));
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for(int i = HEADER_SIZE; i < SIZE; i += 8) {
+            buffer.putLong(i, 0L);
+        }
+        created = System.currentTimeMillis();
+        cleanCreated = created;
+        buffer.putLong(0, created);
+    }
+
+    public void close() {
+        if(buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    public boolean hasSettings(File file, long maxAgeMillis, long cleanMaxAgeMillis) {
+        return Objects.equals(this.file, file) && this.maxAge == maxAgeMillis && this.cleanMaxAge == cleanMaxAgeMillis;
+    }
+
+    private boolean isExpired(long now) {
+        return now - created > maxAge;
+    }
+
+    private synchronized void expire() {
+        // Another thread may have already cleared it
+        if(isExpired(System.currentTimeMillis())) {
+            clear();
+        }
+    }
+
+    private synchronized void expireClean() {
+        if(System.currentTimeMillis() - cleanCreated > cleanMaxAge) {
+            forgetClean();
+        }
+    }
+
+    private synchronized void forgetClean() {
+        // Walk one lock's bytes at a time so concurrent writes aren't lost
+        for(int l = 0; l < locks.length; l++) {
+            synchronized(locks[l]) {
+                for(int i = l; i < BLOCKS / 4; i += locks.length) {
+                    int b = buffer.get(HEADER_SIZE + i);
+                    // CLEAN is 01, so the low bit is set and the high bit isn't
+                    int clean = b & ~(b >>> 1) & 0x55;
+                    if(clean != 0) {
+                        buffer.put(HEADER_SIZE + i, (byte) (b & ~clean));
+                    }
+                }
+            }
+        }
+        cleanCreated = System.currentTimeMillis();
+    }
+
+    private void set(int block, Result value) {
+        int index = HEADER_SIZE + (block >>> 2);
+        int shift = (block & 3) << 1;
+        synchronized(locks[(block >>> 2) & (locks.length - 1)]) {
+            byte b = buffer.get(index);
+            Result current = Result.values[(b >>> shift) & 3];
+            if(current == value || current == Result.MIXED) {
+                return;
+            }
+            Result next = current == Result.UNKNOWN ? value : Result.MIXED;
+            buffer.put(index, (byte) ((b & ~(3 << shift)) | (next.ordinal() << shift)));
+        }
+    }
+
+    public enum Result {
+        UNKNOWN,
+        CLEAN,
+        VPN,
+        MIXED;
+
+        private static final Result[] values = values();
+    }
+}
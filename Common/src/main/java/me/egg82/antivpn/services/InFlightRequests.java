@@ -0,0 +1,92 @@
+package me.egg82.antivpn.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+public class InFlightRequests {
+    // Completes a request's future when the thread running it was cancelled, so a waiting thread takes over
+    private static final Object RETRY = new Object();
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> requests = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the request, or waits on an identical request already in-flight
+     * Results are not kept once the request completes
+     *
+     * If the thread running the request is interrupted and the request fails, the failure is not handed to
+     * anyone waiting on it. Instead, one of them runs the request again
+     * A waiting thread that is interrupted gives up without running the request itself
+     *
+     * @param key The request key, eg. mode + normalized IP
+     * @param request The request to run if none is in-flight for the key
+     * @param abandoned Creates the exception to throw if this thread is interrupted while waiting on another
+     * @return The result of the request
+     * @throws E The exception the request threw, whether it was run by this thread or another
+     */
+    @SuppressWarnings("unchecked")
+    public <T, E extends Exception> T get(String key, Request<T, E> request, Abandoned<E> abandoned) throws E {
+        while(true) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            CompletableFuture<Object> existing = requests.putIfAbsent(key, future);
+            if(existing == null) {
+                return run(key, future, request);
+            }
+
+            Object retVal = await(existing, abandoned);
+            if(retVal != RETRY) {
+                return (T) retVal;
+            }
+        }
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    private <T, E extends Exception> T run(String key, CompletableFuture<Object> future, Request<T, E> request) throws E {
+        try {
+            T retVal = request.call();
+            future.complete(retVal);
+            return retVal;
+        } catch(Throwable ex) {
+            if(Thread.currentThread().isInterrupted() || ex instanceof InterruptedException) {
+                // This thread was cancelled, which says nothing about the request for anyone else
+                requests.remove(key, future);
+                future.complete(RETRY);
+            } else {
+                future.completeExceptionally(ex);
+            }
+            throw ex;
+        } finally {
+            requests.remove(key, future);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> Object await(CompletableFuture<Object> future, Abandoned<E> abandoned) throws E {
+        try {
+            return future.get();
+        } catch(ExecutionException ex) {
+            // The cause is whatever the owning thread's request threw, so it's either E or unchecked
+            if(ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw (E) ex.getCause();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw abandoned.create(ex);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Request<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @FunctionalInterface
+    public interface Abandoned<E extends Exception> {
+        E create(InterruptedException ex);
+    }
+}
@@ -1,14 +1,17 @@
 package me.egg82.antivpn.services;
 
+import me.egg82.antivpn.core.IPKey;
 import me.egg82.antivpn.messaging.Messaging;
 
 import java.util.Optional;
 import java.util.UUID;
 
 public interface MessagingHandler {
-    void ipCallback(UUID messageID, String ip, long longIPID, Messaging callingMessaging);
+    void ipCallback(UUID messageID, IPKey ip, long longIPID, Messaging callingMessaging);
 
     void playerCallback(UUID messageID, UUID playerID, long longPlayerID, Messaging callingMessaging);
 
-    void postVPNCallback(UUID messageID, long id, long longIPID, String ip, Optional<Boolean> cascade, Optional<Double> consensus, long created, Messaging callingMessaging);
+    void postVPNCallback(UUID messageID, long id, long longIPID, IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created, Messaging callingMessaging);
+
+    void invalidateCallback(UUID messageID, IPKey network, int prefixLength, Messaging callingMessaging);
 }
@@ -0,0 +1,298 @@
+package me.egg82.antivpn.services;
+
+import me.egg82.antivpn.core.IPKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Fixed-size hash table of VPN results kept outside of the Java heap
+ * Optionally backed by a memory-mapped file so results survive restarts
+ *
+ * The table is split into segments, each with its own lock, and keys are linearly probed within their segment
+ * When a key's probe window is full the oldest result in it is evicted
+ */
+public class OffHeapVerdictCache {
+    private static final long MAGIC = 0x4156504E56455244L; // "AVPNVERD"
+    private static final int HEADER_SIZE = 16; // Magic, capacity, record size
+
+    // high (8), low (8), created (8), consensus (4), flags (4)
+    private static final int RECORD_SIZE = 32;
+    private static final int HIGH_OFFSET = 0;
+    private static final int LOW_OFFSET = 8;
+    private static final int CREATED_OFFSET = 16;
+    private static final int CONSENSUS_OFFSET = 24;
+    private static final int FLAGS_OFFSET = 28;
+
+    private static final int FLAG_USED = 1;
+    private static final int FLAG_HAS_CASCADE = 1 << 1;
+    private static final int FLAG_CASCADE = 1 << 2;
+    private static final int FLAG_HAS_CONSENSUS = 1 << 3;
+
+    private static final int SEGMENTS = 64;
+    private static final int PROBES = 16;
+
+    public static final int MIN_CAPACITY = SEGMENTS * PROBES;
+    public static final int MAX_CAPACITY = 1 << 25; // 1GB of records
+
+    private final ByteBuffer buffer;
+    private final File file;
+    private final int capacity;
+    private final int segmentSize;
+    private final long maxAge;
+
+    private final Object[] locks = new Object[SEGMENTS];
+
+    /**
+     * @param file The file backing the cache, or null to keep it in memory only
+     * @param capacity The number of results to hold, rounded up to a power of two
+     * @param maxAgeMillis How long a result stays valid for after it was created
+     */
+    public OffHeapVerdictCache(File file, int capacity, long maxAgeMillis) throws IOException {
+        if(capacity < MIN_CAPACITY || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between " + MIN_CAPACITY + " and " + MAX_CAPACITY + ".");
+        }
+        if(maxAgeMillis <= 0L) {
+            throw new IllegalArgumentException("maxAgeMillis cannot be <= 0.");
+        }
+
+        this.file = file;
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.segmentSize = this.capacity / SEGMENTS;
+        this.maxAge = maxAgeMillis;
+        for(int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        int size = HEADER_SIZE + this.capacity * RECORD_SIZE;
+        if(file == null) {
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            File parent = file.getParentFile();
+            if(parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Could not create parent directory structure.");
+            }
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                if(channel.size() > size) {
+                    // Left over from a larger capacity
+                    channel.truncate(size);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+            }
+        }
+
+        if(buffer.getLong(0) != MAGIC || buffer.getInt(8) != this.capacity || buffer.getInt(12) != RECORD_SIZE) {
+            clear();
+        }
+    }
+
+    public Optional<Boolean> getCascade(IPKey ip) {
+        int segment = getSegment(ip);
+        synchronized(locks[segment]) {
+            int offset = find(ip, segment);
+            if(offset < 0) {
+                return Optional.empty();
+            }
+            int flags = buffer.getInt(offset + FLAGS_OFFSET);
+            if((flags & FLAG_HAS_CASCADE) == 0) {
+                return Optional.empty();
+            }
+            return Optional.of((flags & FLAG_CASCADE) != 0);
+        }
+    }
+
+    public Optional<Double> getConsensus(IPKey ip) {
+        int segment = getSegment(ip);
+        synchronized(locks[segment]) {
+            int offset = find(ip, segment);
+            if(offset < 0 || (buffer.getInt(offset + FLAGS_OFFSET) & FLAG_HAS_CONSENSUS) == 0) {
+                return Optional.empty();
+            }
+            return Optional.of((double) buffer.getFloat(offset + CONSENSUS_OFFSET));
+        }
+    }
+
+    /**
+     * Stores a result, replacing anything already held for the IP unless what's held is newer
+     * Mirrors storage, where a new result for an IP replaces the old row
+     *
+     * @param ip The IP
+     * @param cascade The cascade result, if any
+     * @param consensus The consensus result, if any
+     * @param created When the result was created, in epoch millis
+     */
+    public void put(IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created) {
+        if(!cascade.isPresent() && !consensus.isPresent()) {
+            return;
+        }
+
+        int flags = FLAG_USED;
+        if(cascade.isPresent()) {
+            flags |= FLAG_HAS_CASCADE;
+            if(cascade.get()) {
+                flags |= FLAG_CASCADE;
+            }
+        }
+        if(consensus.isPresent()) {
+            flags |= FLAG_HAS_CONSENSUS;
+        }
+
+        long high = ip.getHigh();
+        long low = ip.getLow();
+        long now = System.currentTimeMillis();
+        int segment = getSegment(ip);
+        synchronized(locks[segment]) {
+            int start = getStart(ip);
+            int target = -1;
+            int free = -1;
+            int oldestOffset = -1;
+            long oldest = Long.MAX_VALUE;
+            for(int i = 0; i < PROBES; i++) {
+                int offset = getOffset(segment, start + i);
+                if(buffer.getLong(offset + HIGH_OFFSET) == high && buffer.getLong(offset + LOW_OFFSET) == low && (buffer.getInt(offset + FLAGS_OFFSET) & FLAG_USED) != 0) {
+                    if(buffer.getLong(offset + CREATED_OFFSET) > created) {
+                        // Results can arrive late or out of order from other proxies
+                        return;
+                    }
+                    target = offset;
+                    break;
+                }
+                // Keep looking for the key itself, but remember the first free or expired slot
+                if((buffer.getInt(offset + FLAGS_OFFSET) & FLAG_USED) == 0 || buffer.getLong(offset + CREATED_OFFSET) < now - maxAge) {
+                    if(free < 0) {
+                        free = offset;
+                    }
+                    continue;
+                }
+                long recordCreated = buffer.getLong(offset + CREATED_OFFSET);
+                if(recordCreated < oldest) {
+                    oldest = recordCreated;
+                    oldestOffset = offset;
+                }
+            }
+            if(target < 0) {
+                target = free >= 0 ? free : oldestOffset;
+            }
+
+            buffer.putLong(target + HIGH_OFFSET, high);
+            buffer.putLong(target + LOW_OFFSET, low);
+            buffer.putLong(target + CREATED_OFFSET, created);
+            buffer.putFloat(target + CONSENSUS_OFFSET, consensus.isPresent() ? consensus.get().floatValue() : 0.0f);
+            buffer.putInt(target + FLAGS_OFFSET, flags);
+        }
+    }
+
+    public void invalidate(IPKey ip) {
+        int segment = getSegment(ip);
+        synchronized(locks[segment]) {
+            int offset = find(ip, segment);
+            if(offset >= 0) {
+                buffer.putInt(offset + FLAGS_OFFSET, 0);
+            }
+        }
+    }
+
+    /**
+     * Invalidates every result in a range
+     * This has to scan the whole table, so it's only meant for the occasional manual correction
+     *
+     * @param network Any address in the range
+     * @param prefixLength The range's prefix length
+     */
+    public void invalidate(IPKey network, int prefixLength) {
+        // Compare everything as IPv6, IPv4 being IPv4-mapped
+        int bits = network.isIPv4() ? 96 + prefixLength : prefixLength;
+        long highMask = bits >= 64 ? -1L : bits == 0 ? 0L : -1L << (64 - bits);
+        long lowMask = bits <= 64 ? 0L : bits == 128 ? -1L : -1L << (128 - bits);
+        long high = network.getHigh() & highMask;
+        long low = network.getLow() & lowMask;
+
+        for(int segment = 0; segment < SEGMENTS; segment++) {
+            synchronized(locks[segment]) {
+                int end = getOffset(segment, 0) + segmentSize * RECORD_SIZE;
+                for(int offset = getOffset(segment, 0); offset < end; offset += RECORD_SIZE) {
+                    if((buffer.getInt(offset + FLAGS_OFFSET) & FLAG_USED) != 0
+                            && (buffer.getLong(offset + HIGH_OFFSET) & highMask) == high
+                            && (buffer.getLong(offset + LOW_OFFSET) & lowMask) == low) {
+                        buffer.putInt(offset + FLAGS_OFFSET, 0);
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for(int segment = 0; segment < SEGMENTS; segment++) {
+            synchronized(locks[segment]) {
+                int end = getOffset(segment, 0) + segmentSize * RECORD_SIZE;
+                for(int offset = getOffset(segment, 0); offset < end; offset += RECORD_SIZE) {
+                    buffer.putInt(offset + FLAGS_OFFSET, 0);
+                }
+            }
+        }
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, RECORD_SIZE);
+    }
+
+    public void close() {
+        if(buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    public boolean hasSettings(File file, int capacity, long maxAgeMillis) {
+        return Objects.equals(this.file, file) && this.capacity == Integer.highestOneBit(capacity - 1) << 1 && this.maxAge == maxAgeMillis;
+    }
+
+    /**
+     * Finds a live record, must be called while holding the segment's lock
+     *
+     * @return The record's offset, or -1 if there's no valid record for the IP
+     */
+    private int find(IPKey ip, int segment) {
+        long high = ip.getHigh();
+        long low = ip.getLow();
+        int start = getStart(ip);
+        for(int i = 0; i < PROBES; i++) {
+            int offset = getOffset(segment, start + i);
+            if((buffer.getInt(offset + FLAGS_OFFSET) & FLAG_USED) == 0) {
+                // Slots are only freed by invalidate, so keep probing past them
+                continue;
+            }
+            if(buffer.getLong(offset + HIGH_OFFSET) == high && buffer.getLong(offset + LOW_OFFSET) == low) {
+                return buffer.getLong(offset + CREATED_OFFSET) < System.currentTimeMillis() - maxAge ? -1 : offset;
+            }
+        }
+        return -1;
+    }
+
+    private int getOffset(int segment, int slot) {
+        return HEADER_SIZE + (segment * segmentSize + (slot & (segmentSize - 1))) * RECORD_SIZE;
+    }
+
+    private static int getSegment(IPKey ip) {
+        return (int) (hash(ip) >>> 58) & (SEGMENTS - 1);
+    }
+
+    private static int getStart(IPKey ip) {
+        return (int) hash(ip);
+    }
+
+    private static long hash(IPKey ip) {
+        // Murmur3 finalizer over both halves
+        long h = ip.getHigh() * 0x9E3779B97F4A7C15L ^ ip.getLow();
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,183 @@
+package me.egg82.antivpn.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import me.egg82.antivpn.core.IPKey;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks VPN results by network block
+ * IPv6 addresses are looked up by their whole block, while an IPv4 block is only answered as a whole
+ * once enough distinct addresses in it have been flagged
+ */
+public class PrefixAggregator {
+    private final int ipv4Prefix;
+    private final int ipv6Prefix;
+    private final int minFlagged;
+
+    private final Cache<IPKey, Block> blocks;
+    // The last address seen in each IPv6 block, so the block is refreshed using a real address rather than its network address
+    private final Cache<IPKey, IPKey> clients;
+
+    public PrefixAggregator(int ipv4Prefix, int ipv6Prefix, int minFlagged, long expireMillis) {
+        if(ipv4Prefix < 1 || ipv4Prefix > 32) {
+            throw new IllegalArgumentException("ipv4Prefix must be between 1 and 32.");
+        }
+        if(ipv6Prefix < 1 || ipv6Prefix > 128) {
+            throw new IllegalArgumentException("ipv6Prefix must be between 1 and 128.");
+        }
+        if(minFlagged <= 0) {
+            throw new IllegalArgumentException("minFlagged cannot be <= 0.");
+        }
+        if(expireMillis <= 0L) {
+            throw new IllegalArgumentException("expireMillis cannot be <= 0.");
+        }
+
+        this.ipv4Prefix = ipv4Prefix;
+        this.ipv6Prefix = ipv6Prefix;
+        this.minFlagged = minFlagged;
+        // Blocks that keep getting hit stay flagged for as long as they're being hit
+        this.blocks = Caffeine.newBuilder().expireAfterAccess(expireMillis, TimeUnit.MILLISECONDS).build();
+        this.clients = Caffeine.newBuilder().expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * Gets the key an address should be cached as
+     * The address is remembered as the block's most recent client
+     *
+     * @param ip The address
+     * @return The IPv6 block the address is in, or the IPv4 address itself
+     */
+    public IPKey getLookupKey(IPKey ip) {
+        if(ip.isIPv4()) {
+            return ip;
+        }
+
+        IPKey retVal = ip.toPrefix(ipv6Prefix);
+        if(!retVal.equals(ip)) {
+            clients.put(retVal, ip);
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the address a cached key should be looked up from the sources and Storage as
+     *
+     * @param key The cached key
+     * @return The most recent address seen in the IPv6 block, or the key itself if there isn't one
+     */
+    public IPKey getClientKey(IPKey key) {
+        if(key.isIPv4()) {
+            return key;
+        }
+
+        IPKey retVal = clients.getIfPresent(key);
+        return retVal != null ? retVal : key;
+    }
+
+    /**
+     * Records a positive result for an IPv4 address against its block
+     *
+     * @param ip The address that was flagged
+     * @param value The result, 1 for cascade or the consensus ratio
+     */
+    public void flag(IPKey ip, double value) {
+        if(!ip.isIPv4()) {
+            // IPv6 lookups already cover the whole block
+            return;
+        }
+
+        Block block = blocks.get(ip.toPrefix(ipv4Prefix), k -> new Block());
+        // Anything past the threshold doesn't change the outcome
+        if(block.flagged.size() < minFlagged) {
+            block.flagged.putIfAbsent(ip, value);
+        }
+    }
+
+    /**
+     * Records a negative result for an IPv4 address against its block
+     *
+     * @param ip The address that was found to be clean
+     */
+    public void pass(IPKey ip) {
+        if(!ip.isIPv4()) {
+            return;
+        }
+
+        Block block = blocks.get(ip.toPrefix(ipv4Prefix), k -> new Block());
+        if(block.passed.size() < minFlagged) {
+            block.passed.add(ip);
+        }
+    }
+
+    /**
+     * Gets the result for an IPv4 address' block, if the block has been flagged
+     *
+     * @param ip The address
+     * @return The lowest result among the block's flagged addresses, or empty if the block hasn't reached the threshold
+     */
+    public Optional<Double> getBlockResult(IPKey ip) {
+        if(!ip.isIPv4()) {
+            return Optional.empty();
+        }
+
+        Block block = blocks.getIfPresent(ip.toPrefix(ipv4Prefix));
+        if(block == null || block.flagged.size() < minFlagged) {
+            return Optional.empty();
+        }
+
+        double retVal = 1.0d;
+        for(double value : block.flagged.values()) {
+            retVal = Math.min(retVal, value);
+        }
+        return Optional.of(retVal);
+    }
+
+    /**
+     * Checks whether or not an IPv4 address' block has only ever come back clean
+     *
+     * @param ip The address
+     * @return true if at least "minFlagged" addresses in the block were clean and none were flagged
+     */
+    public boolean isBlockClean(IPKey ip) {
+        if(!ip.isIPv4()) {
+            return false;
+        }
+
+        Block block = blocks.getIfPresent(ip.toPrefix(ipv4Prefix));
+        return block != null && block.flagged.isEmpty() && block.passed.size() >= minFlagged;
+    }
+
+    /**
+     * Drops every IPv4 block that overlaps a range, so nothing in it is answered from old results
+     *
+     * @param network Any address in the range
+     * @param prefixLength The range's prefix length
+     */
+    public void forget(IPKey network, int prefixLength) {
+        if(!network.isIPv4()) {
+            return;
+        }
+        int overlap = Math.min(prefixLength, ipv4Prefix);
+        blocks.asMap().keySet().removeIf(k -> k.isIn(network, overlap));
+    }
+
+    public int getIPv4Prefix() {
+        return ipv4Prefix;
+    }
+
+    public int getIPv6Prefix() {
+        return ipv6Prefix;
+    }
+
+    private static class Block {
+        // Flagged addresses and their results
+        private final Map<IPKey, Double> flagged = new ConcurrentHashMap<>();
+        private final Set<IPKey> passed = ConcurrentHashMap.newKeySet();
+    }
+}
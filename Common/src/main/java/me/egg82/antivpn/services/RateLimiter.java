@@ -0,0 +1,63 @@
+package me.egg82.antivpn.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as a generic cell rate algorithm
+ * Allows bursts of up to "requests" calls, refilling one call every period / requests
+ */
+public class RateLimiter {
+    private final int requests;
+    private final long period;
+    private final long interval;
+    private final long tolerance;
+
+    // Theoretical arrival time of the next call, in System.nanoTime() terms
+    private final AtomicLong nextArrival;
+
+    public RateLimiter(int requests, long periodNanos) {
+        if(requests <= 0) {
+            throw new IllegalArgumentException("requests cannot be <= 0.");
+        }
+        if(periodNanos <= 0L) {
+            throw new IllegalArgumentException("periodNanos cannot be <= 0.");
+        }
+
+        this.requests = requests;
+        this.period = periodNanos;
+        this.interval = Math.max(1L, periodNanos / requests);
+        this.tolerance = periodNanos - interval;
+        this.nextArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token if one is available
+     *
+     * @return true if the call may proceed, false if the limit has been reached
+     */
+    public boolean tryAcquire() {
+        while(true) {
+            long now = System.nanoTime();
+            long current = nextArrival.get();
+            if(current - now > tolerance) {
+                return false;
+            }
+            if(nextArrival.compareAndSet(current, Math.max(current, now) + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Checks whether or not a token is available, without taking it
+     *
+     * @return true if a call right now would be refused
+     */
+    public boolean isThrottled() {
+        return nextArrival.get() - System.nanoTime() > tolerance;
+    }
+
+    public boolean hasSettings(int requests, long periodNanos) {
+        return this.requests == requests && this.period == periodNanos;
+    }
+}
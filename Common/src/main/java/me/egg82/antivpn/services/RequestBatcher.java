@@ -0,0 +1,153 @@
+package me.egg82.antivpn.services;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects requests made close together and sends them as one bulk request
+ * A batch is sent once it's been open for the window, or as soon as it's full
+ * Identical keys in the same batch are only sent once
+ *
+ * A caller cancelling its future only removes it from a batch that hasn't been sent yet
+ * Once sent, the bulk request keeps going for everyone else in it
+ */
+public class RequestBatcher<K, V> {
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("AntiVPN-Batch-%d").setDaemon(true).build());
+
+    private final long window;
+    private final int maxSize;
+    private final BatchRequest<K, V> request;
+
+    private Map<K, List<CompletableFuture<V>>> pending = new LinkedHashMap<>();
+
+    /**
+     * @param windowMillis How long a batch stays open for after its first request
+     * @param maxSize The most keys a single batch can hold
+     * @param request Sends a batch, completing with a result for each key
+     */
+    public RequestBatcher(long windowMillis, int maxSize, BatchRequest<K, V> request) {
+        if(windowMillis <= 0L) {
+            throw new IllegalArgumentException("windowMillis cannot be <= 0.");
+        }
+        if(maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize cannot be <= 0.");
+        }
+        if(request == null) {
+            throw new IllegalArgumentException("request cannot be null.");
+        }
+
+        this.window = windowMillis;
+        this.maxSize = maxSize;
+        this.request = request;
+    }
+
+    public CompletableFuture<V> submit(K key) {
+        CompletableFuture<V> retVal = new CompletableFuture<>();
+        Map<K, List<CompletableFuture<V>>> full = null;
+        Map<K, List<CompletableFuture<V>>> batch;
+        synchronized(this) {
+            batch = pending;
+            batch.computeIfAbsent(key, k -> new ArrayList<>()).add(retVal);
+            if(batch.size() >= maxSize) {
+                full = batch;
+                pending = new LinkedHashMap<>();
+            } else if(batch.size() == 1 && batch.get(key).size() == 1) {
+                try {
+                    scheduler.schedule(() -> flush(batch), window, TimeUnit.MILLISECONDS);
+                } catch(RejectedExecutionException ignored) {
+                    full = batch;
+                    pending = new LinkedHashMap<>();
+                }
+            }
+        }
+
+        retVal.whenComplete((v, ex) -> {
+            if(!retVal.isCancelled()) {
+                return;
+            }
+            synchronized(this) {
+                if(pending != batch) {
+                    // Already sent
+                    return;
+                }
+                List<CompletableFuture<V>> waiting = batch.get(key);
+                if(waiting != null && waiting.remove(retVal) && waiting.isEmpty()) {
+                    batch.remove(key);
+                }
+            }
+        });
+
+        if(full != null) {
+            send(full);
+        }
+        return retVal;
+    }
+
+    private void flush(Map<K, List<CompletableFuture<V>>> batch) {
+        synchronized(this) {
+            if(pending != batch) {
+                // Already sent for being full
+                return;
+            }
+            pending = new LinkedHashMap<>();
+        }
+        send(batch);
+    }
+
+    private void send(Map<K, List<CompletableFuture<V>>> batch) {
+        // Only ever touched by this thread from here on
+        batch.values().removeIf(waiting -> {
+            waiting.removeIf(CompletableFuture::isDone);
+            return waiting.isEmpty();
+        });
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        CompletableFuture<Map<K, V>> results;
+        try {
+            results = request.send(Collections.unmodifiableSet(batch.keySet()));
+        } catch(Exception ex) {
+            complete(batch, null, ex);
+            return;
+        }
+
+        results.whenComplete((v, ex) -> complete(batch, v, ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex));
+    }
+
+    private void complete(Map<K, List<CompletableFuture<V>>> batch, Map<K, V> results, Throwable ex) {
+        for(Map.Entry<K, List<CompletableFuture<V>>> kvp : batch.entrySet()) {
+            for(CompletableFuture<V> future : kvp.getValue()) {
+                if(ex != null) {
+                    future.completeExceptionally(ex);
+                } else if(results == null || !results.containsKey(kvp.getKey())) {
+                    future.completeExceptionally(new IllegalStateException("Batch response did not include " + kvp.getKey() + "."));
+                } else {
+                    future.complete(results.get(kvp.getKey()));
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface BatchRequest<K, V> {
+        /**
+         * @param keys The keys in the batch, in the order they were submitted
+         * @return A future completing with a result for each key
+         * @throws Exception if the request could not be started
+         */
+        CompletableFuture<Map<K, V>> send(Set<K> keys) throws Exception;
+    }
+}
@@ -0,0 +1,172 @@
+package me.egg82.antivpn.services;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+public class SourceMetrics {
+    private static final int WINDOW_SIZE = 128;
+
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    public void record(String source, long nanos, boolean success) {
+        windows.computeIfAbsent(source, k -> new Window()).record(nanos, success);
+    }
+
+    /**
+     * Gets a latency percentile from the most recent successful calls to a source
+     *
+     * @param source The source name
+     * @param percentile The percentile, from 0 to 1
+     * @param minSamples The number of samples required before a value is returned
+     * @return The latency in milliseconds, or -1 if there are not enough samples
+     */
+    public long getLatencyPercentile(String source, double percentile, int minSamples) {
+        Window window = windows.get(source);
+        return window == null ? -1L : window.getPercentile(percentile, minSamples);
+    }
+
+    public void recordAgreement(String source, boolean agreed) {
+        windows.computeIfAbsent(source, k -> new Window()).recordAgreement(agreed);
+    }
+
+    /**
+     * Estimates how long a source takes, on average, to give a valid answer, from its most recent calls
+     * This is the mean call time (failures included) divided by the chance a call succeeds and agrees with the others
+     * Trying sources in increasing order of this value minimizes the expected time until a valid answer
+     *
+     * @param source The source name
+     * @param minSamples The number of recent calls required before a value is returned
+     * @param maxAgeMillis How old a call can be before it no longer counts
+     * @return The time in milliseconds, {@link Double#POSITIVE_INFINITY} if the source hasn't given a valid answer,
+     * or -1 if there are not enough recent calls
+     */
+    public double getTimePerValidAnswer(String source, int minSamples, long maxAgeMillis) {
+        Window window = windows.get(source);
+        return window == null ? -1.0d : window.getTimePerValidAnswer(minSamples, TimeUnit.MILLISECONDS.toNanos(maxAgeMillis));
+    }
+
+    public long getSuccesses(String source) {
+        Window window = windows.get(source);
+        return window == null ? 0L : window.getSuccesses();
+    }
+
+    public long getFailures(String source) {
+        Window window = windows.get(source);
+        return window == null ? 0L : window.getFailures();
+    }
+
+    private static class Window {
+        private final long[] latencies = new long[WINDOW_SIZE];
+        private int index = 0;
+        private int count = 0;
+        private long successes = 0L;
+        private long failures = 0L;
+
+        // Every call, for estimating time per valid answer
+        private final long[] callTimes = new long[WINDOW_SIZE];
+        private final long[] callNanos = new long[WINDOW_SIZE];
+        private final boolean[] callSuccesses = new boolean[WINDOW_SIZE];
+        private int callIndex = 0;
+        private int callCount = 0;
+
+        private final long[] agreementTimes = new long[WINDOW_SIZE];
+        private final boolean[] agreements = new boolean[WINDOW_SIZE];
+        private int agreementIndex = 0;
+        private int agreementCount = 0;
+
+        private synchronized void record(long nanos, boolean success) {
+            callTimes[callIndex] = System.nanoTime();
+            callNanos[callIndex] = nanos;
+            callSuccesses[callIndex] = success;
+            callIndex = (callIndex + 1) % callTimes.length;
+            if(callCount < callTimes.length) {
+                callCount++;
+            }
+
+            if(!success) {
+                failures++;
+                return;
+            }
+
+            successes++;
+            latencies[index] = nanos;
+            index = (index + 1) % latencies.length;
+            if(count < latencies.length) {
+                count++;
+            }
+        }
+
+        private synchronized void recordAgreement(boolean agreed) {
+            agreementTimes[agreementIndex] = System.nanoTime();
+            agreements[agreementIndex] = agreed;
+            agreementIndex = (agreementIndex + 1) % agreementTimes.length;
+            if(agreementCount < agreementTimes.length) {
+                agreementCount++;
+            }
+        }
+
+        private synchronized double getTimePerValidAnswer(int minSamples, long maxAgeNanos) {
+            long now = System.nanoTime();
+
+            int calls = 0;
+            int callSuccessCount = 0;
+            long totalNanos = 0L;
+            for(int i = 0; i < callCount; i++) {
+                if(now - callTimes[i] > maxAgeNanos) {
+                    continue;
+                }
+                calls++;
+                totalNanos += callNanos[i];
+                if(callSuccesses[i]) {
+                    callSuccessCount++;
+                }
+            }
+            if(calls == 0 || calls < minSamples) {
+                return -1.0d;
+            }
+
+            int agreementSamples = 0;
+            int agreed = 0;
+            for(int i = 0; i < agreementCount; i++) {
+                if(now - agreementTimes[i] > maxAgeNanos) {
+                    continue;
+                }
+                agreementSamples++;
+                if(agreements[i]) {
+                    agreed++;
+                }
+            }
+            // Agreement is only known when sources are compared, so assume the best until it is
+            double agreementRate = agreementSamples == 0 || agreementSamples < minSamples ? 1.0d : (double) agreed / (double) agreementSamples;
+
+            double validRate = ((double) callSuccessCount / (double) calls) * agreementRate;
+            if(validRate <= 0.0d) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return ((double) totalNanos / (double) calls / 1_000_000.0d) / validRate;
+        }
+
+        private long getPercentile(double percentile, int minSamples) {
+            long[] sorted;
+            synchronized(this) {
+                if(count == 0 || count < minSamples) {
+                    return -1L;
+                }
+                sorted = Arrays.copyOf(latencies, count);
+            }
+            Arrays.sort(sorted);
+            int i = (int) Math.ceil(percentile * sorted.length) - 1;
+            return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, Math.min(sorted.length - 1, i))]);
+        }
+
+        private synchronized long getSuccesses() {
+            return successes;
+        }
+
+        private synchronized long getFailures() {
+            return failures;
+        }
+    }
+}
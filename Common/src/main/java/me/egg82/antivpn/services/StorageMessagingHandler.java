@@ -3,6 +3,8 @@ package me.egg82.antivpn.services;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.egg82.antivpn.VPNAPI;
+import me.egg82.antivpn.core.IPKey;
 import me.egg82.antivpn.core.VPNResult;
 import me.egg82.antivpn.extended.CachedConfigValues;
 import me.egg82.antivpn.messaging.Messaging;
@@ -96,6 +98,7 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
             }
             cachedVPNPosts.put(r.getID(), Boolean.TRUE);
             receivedMessages.getAndIncrement();
+            VPNAPI.cacheResult(r.getIP(), r.getCascade(), r.getConsensus(), r.getCreated());
         }
 
         try {
@@ -110,7 +113,7 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
         }
     }
 
-    public void ipIDCreationCallback(String ip, long longIPID, Storage callingStorage) {
+    public void ipIDCreationCallback(IPKey ip, long longIPID, Storage callingStorage) {
         if(ConfigUtil.getDebugOrFalse()) {
             logger.info("IP created: " + ip + " = " + longIPID);
             logger.info("Propagating to storage & messaging");
@@ -178,7 +181,7 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
         }
     }
 
-    public void ipCallback(UUID messageID, String ip, long longIPID, Messaging callingMessaging) {
+    public void ipCallback(UUID messageID, IPKey ip, long longIPID, Messaging callingMessaging) {
         if(cachedMessages.get(messageID)) {
             return;
         }
@@ -250,7 +253,7 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
         }
     }
 
-    public void postVPNCallback(UUID messageID, long id, long longIPID, String ip, Optional<Boolean> cascade, Optional<Double> consensus, long created, Messaging callingMessaging) {
+    public void postVPNCallback(UUID messageID, long id, long longIPID, IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus, long created, Messaging callingMessaging) {
         if(cachedMessages.get(messageID)) {
             return;
         }
@@ -267,6 +270,9 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
             return;
         }
 
+        // Answer this IP from memory rather than going back to storage or the sources
+        VPNAPI.cacheResult(ip, cascade, consensus, created);
+
         for(Storage storage : cachedConfig.get().getStorage()) {
             try {
                 storage.postVPNRaw(id, longIPID, cascade, consensus, created);
@@ -285,4 +291,35 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
             }
         }
     }
+
+    public void invalidateCallback(UUID messageID, IPKey network, int prefixLength, Messaging callingMessaging) {
+        if(cachedMessages.get(messageID)) {
+            return;
+        }
+        cachedMessages.put(messageID, Boolean.TRUE);
+
+        if(ConfigUtil.getDebugOrFalse()) {
+            logger.info("VPN invalidated: " + network + "/" + prefixLength);
+            logger.info("Propagating to messaging");
+        }
+
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if(!cachedConfig.isPresent()) {
+            logger.error("Cached config could not be fetched.");
+            return;
+        }
+
+        // The proxy that sent this already deleted from every storage, so only the local caches are left
+        VPNAPI.invalidate(network, prefixLength);
+
+        for(Messaging messaging : cachedConfig.get().getMessaging()) {
+            if(messaging != callingMessaging) {
+                try {
+                    messaging.sendInvalidate(messageID, network, prefixLength);
+                } catch(MessagingException ex) {
+                    logger.error("Could not send VPN invalidation for " + messaging.getClass().getSimpleName() + ".", ex);
+                }
+            }
+        }
+    }
 }
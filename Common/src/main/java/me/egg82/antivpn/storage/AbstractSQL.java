@@ -1,6 +1,7 @@
 package me.egg82.antivpn.storage;
 
 import com.google.common.primitives.Ints;
+import me.egg82.antivpn.core.IPKey;
 import ninja.egg82.core.SQLQueryResult;
 import ninja.egg82.sql.FileImporter;
 import ninja.egg82.sql.SQL;
@@ -14,8 +15,11 @@ import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 public abstract class AbstractSQL implements Storage {
+    private static final int DELETE_PAGE_SIZE = 1000;
+
     protected SQL sql;
     protected String database = "";
     protected String prefix = "";
@@ -177,6 +181,45 @@ public abstract class AbstractSQL implements Storage {
         }
     }
 
+    public long deleteVPN(IPKey network, int prefixLength) throws StorageException {
+        if(network == null) {
+            throw new IllegalArgumentException("network cannot be null.");
+        }
+
+        try {
+            List<Long> ipIDs = new ArrayList<>();
+            if(prefixLength == (network.isIPv4() ? 32 : 128)) {
+                SQLQueryResult result = sql.query("SELECT `id` FROM `" + prefix + "ips` WHERE `ip`=?;", network.toString());
+                for(Object[] row : result.getData()) {
+                    ipIDs.add(((Number) row[0]).longValue());
+                }
+            } else {
+                // IPs are stored as strings, so ranges have to be matched here rather than in the query
+                long lastID = 0L;
+                SQLQueryResult result;
+                do {
+                    result = sql.query("SELECT `id`, `ip` FROM `" + prefix + "ips` WHERE `id` > ? ORDER BY `id` LIMIT ?;", lastID, DELETE_PAGE_SIZE);
+                    for(Object[] row : result.getData()) {
+                        lastID = ((Number) row[0]).longValue();
+                        String ip = (String) row[1];
+                        Optional<IPKey> ipKey = IPKey.parse(ip);
+                        if(ipKey.isPresent() && ipKey.get().isIn(network, prefixLength)) {
+                            ipIDs.add(lastID);
+                        }
+                    }
+                } while(result.getData().length == DELETE_PAGE_SIZE);
+            }
+
+            long retVal = 0L;
+            for(long ipID : ipIDs) {
+                retVal += sql.execute("DELETE FROM `" + prefix + "vpn_values` WHERE `ip_id`=?;", ipID).getRecordsAffected();
+            }
+            return retVal;
+        } catch(SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
     protected abstract void setKey(String key, String value) throws SQLException;
 
     protected abstract double getDouble(String key) throws SQLException;
@@ -4,6 +4,7 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.mysql.cj.exceptions.MysqlErrorNumbers;
 import com.zaxxer.hikari.HikariConfig;
+import me.egg82.antivpn.core.IPKey;
 import me.egg82.antivpn.core.IPResult;
 import me.egg82.antivpn.core.PlayerResult;
 import me.egg82.antivpn.core.PostVPNResult;
@@ -30,7 +31,7 @@ import java.util.UUID;
 public class MySQL extends AbstractSQL {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final LoadingCache<String, Long> longIPIDCache = Caffeine.newBuilder().build(this::getLongIPIDExpensive);
+    private final LoadingCache<IPKey, Long> longIPIDCache = Caffeine.newBuilder().build(this::getLongIPIDExpensive);
     private final LoadingCache<UUID, Long> longPlayerIDCache = Caffeine.newBuilder().build(this::getLongPlayerIDExpensive);
 
     private volatile long lastVPNID;
@@ -164,13 +165,10 @@ public class MySQL extends AbstractSQL {
         return retVal;
     }
 
-    public VPNResult getVPNByIP(String ip, long cacheTimeMillis) throws StorageException {
+    public VPNResult getVPNByIP(IPKey ip, long cacheTimeMillis) throws StorageException {
         if(ip == null) {
             throw new IllegalArgumentException("ip cannot be null.");
         }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
 
         long longIPID = longIPIDCache.get(ip);
         SQLQueryResult result;
@@ -185,13 +183,39 @@ public class MySQL extends AbstractSQL {
         return null;
     }
 
-    public PostVPNResult postVPN(String ip, Optional<Boolean> cascade, Optional<Double> consensus) throws StorageException {
+    public Set<VPNResult> getRecentVPN(long beforeID, long cacheTimeMillis, int size) throws StorageException {
+        Set<VPNResult> retVal = new LinkedHashSet<>();
+        SQLQueryResult result;
+        try {
+            // Pages by primary key so every page is a cheap range scan, however deep into the table it is
+            result = sql.query(
+                    "SELECT" +
+                            "  `v`.`id`," +
+                            "  `i`.`ip` AS `ip`," +
+                            "  `v`.`cascade`," +
+                            "  `v`.`consensus`," +
+                            "  `v`.`created`" +
+                            "FROM `" + prefix + "vpn_values` `v`" +
+                            "JOIN `" + prefix + "ips` `i` ON `i`.`id` = `v`.`ip_id`" +
+                            "WHERE `v`.`id` < ? AND `v`.`created` >= DATE_SUB(CURRENT_TIMESTAMP, INTERVAL ? * 1000 MICROSECOND)" +
+                            "ORDER BY `v`.`id` DESC LIMIT ?;",
+                    beforeID, cacheTimeMillis, size);
+        } catch(SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+        for(Object[] row : result.getData()) {
+            VPNResult r = getVPNResult(row);
+            if(r != null) {
+                retVal.add(r);
+            }
+        }
+        return retVal;
+    }
+
+    public PostVPNResult postVPN(IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus) throws StorageException {
         if(ip == null) {
             throw new IllegalArgumentException("ip cannot be null.");
         }
-        if(!ValidationUtil.isValidIp(ip)) {
-            throw new IllegalArgumentException("ip is invalid.");
-        }
         if(cascade == null) {
             throw new IllegalArgumentException("cascade cannot be null.");
         }
@@ -226,9 +250,9 @@ public class MySQL extends AbstractSQL {
         );
     }
 
-    public void setIPRaw(long longIPID, String ip) throws StorageException {
+    public void setIPRaw(long longIPID, IPKey ip) throws StorageException {
         try {
-            sql.execute("INSERT INTO `" + prefix + "ips` (`id`, `ip`) VALUES (?, ?) ON DUPLICATE KEY UPDATE `ip`=?, `uuid`=?;", longIPID, ip, longIPID, ip);
+            sql.execute("INSERT INTO `" + prefix + "ips` (`id`, `ip`) VALUES (?, ?) ON DUPLICATE KEY UPDATE `ip`=?, `uuid`=?;", longIPID, ip.toString(), longIPID, ip.toString());
         } catch(SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -264,7 +288,7 @@ public class MySQL extends AbstractSQL {
         return -1.0d;
     }
 
-    public long getLongIPID(String ip) {
+    public long getLongIPID(IPKey ip) {
         return longIPIDCache.get(ip);
     }
 
@@ -284,14 +308,15 @@ public class MySQL extends AbstractSQL {
 
         for(Object[] row : result.getData()) {
             String ip = (String) row[1];
-            if(!ValidationUtil.isValidIp(ip)) {
+            Optional<IPKey> ipKey = IPKey.parse(ip);
+            if(!ipKey.isPresent()) {
                 logger.warn("IP ID " + ((Number) row[0]).longValue() + " has an invalid IP \"" + ip + "\".");
                 continue;
             }
 
             retVal.add(new IPResult(
                     ((Number) row[0]).byteValue(),
-                    (String) row[1]
+                    ipKey.get()
             ));
         }
 
@@ -307,7 +332,7 @@ public class MySQL extends AbstractSQL {
                 longIPIDCache.invalidateAll();
             }
             for(IPResult ip : ips) {
-                sql.execute("INSERT INTO `" + prefix + "ips` (`id`, `ip`) VALUES (?, ?);", ip.getLongIPID(), ip.getIP());
+                sql.execute("INSERT INTO `" + prefix + "ips` (`id`, `ip`) VALUES (?, ?);", ip.getLongIPID(), ip.getIP().toString());
                 longIPIDCache.put(ip.getIP(), ip.getLongIPID());
             }
             if(truncate) {
@@ -407,29 +432,30 @@ public class MySQL extends AbstractSQL {
 
     private VPNResult getVPNResult(Object[] row) {
         String ip = (String) row[1];
-        if(!ValidationUtil.isValidIp(ip)) {
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
             logger.warn("VPN ID " + row[0] + " has an invalid IP \"" + row[1] + "\".");
             return null;
         }
 
         return new VPNResult(
                 ((Number) row[0]).longValue(),
-                ip,
+                ipKey.get(),
                 row[2] == null ? Optional.empty() : Optional.of((Boolean) row[2]),
                 row[3] == null ? Optional.empty() : Optional.of(((Number) row[3]).doubleValue()),
                 ((Timestamp) row[4]).getTime()
         );
     }
 
-    private long getLongIPIDExpensive(String ip) throws SQLException, StorageException {
+    private long getLongIPIDExpensive(IPKey ip) throws SQLException, StorageException {
         // A majority of the time there'll be an ID
-        SQLQueryResult result = sql.query("SELECT `id` FROM `" + prefix + "ips` WHERE `ip`=?;", ip);
+        SQLQueryResult result = sql.query("SELECT `id` FROM `" + prefix + "ips` WHERE `ip`=?;", ip.toString());
         if(result.getData().length == 1) {
             return ((Number) result.getData()[0][0]).longValue();
         }
 
         // No ID, generate one
-        SQLExecuteResult r = sql.execute("INSERT INTO `" + prefix + "ips` (`ip`) VALUES (?);", ip);
+        SQLExecuteResult r = sql.execute("INSERT INTO `" + prefix + "ips` (`ip`) VALUES (?);", ip.toString());
         if(r.getAutoGeneratedKeys().length != 1) {
             throw new StorageException(false, "Could not get generated keys from inserted IP.");
         }
@@ -2,6 +2,7 @@ package me.egg82.antivpn.storage;
 
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
+import me.egg82.antivpn.core.IPKey;
 import me.egg82.antivpn.core.IPResult;
 import me.egg82.antivpn.core.PlayerResult;
 import me.egg82.antivpn.core.PostVPNResult;
@@ -17,12 +18,18 @@ import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.exceptions.JedisException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -31,7 +38,9 @@ import java.util.concurrent.atomic.AtomicLong;
 public class Redis implements Storage {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final LoadingCache<String, Long> longIPIDCache = Caffeine.newBuilder().build(this::getLongIPIDExpensive);
+    private static final int BATCH_SIZE = 500;
+
+    private final LoadingCache<IPKey, Long> longIPIDCache = Caffeine.newBuilder().build(this::getLongIPIDExpensive);
     private final LoadingCache<UUID, Long> longPlayerIDCache = Caffeine.newBuilder().build(this::getLongPlayerIDExpensive);
 
     private JedisPool pool;
@@ -191,7 +200,7 @@ public class Redis implements Storage {
         }
     }
 
-    public VPNResult getVPNByIP(String ip, long cacheTimeMillis) throws StorageException {
+    public VPNResult getVPNByIP(IPKey ip, long cacheTimeMillis) throws StorageException {
         try(Jedis redis = pool.getResource()) {
             long longIPID = longIPIDCache.get(ip);
             try {
@@ -206,7 +215,180 @@ public class Redis implements Storage {
         }
     }
 
-    public PostVPNResult postVPN(String ip, Optional<Boolean> cascade, Optional<Double> consensus) throws StorageException {
+    public Set<VPNResult> getRecentVPN(long beforeID, long cacheTimeMillis, int size) throws StorageException {
+        Set<VPNResult> retVal = new LinkedHashSet<>();
+
+        try(Jedis redis = pool.getResource()) {
+            String idx = redis.get(prefix + "vpn_values:idx");
+            if(idx == null) {
+                return retVal;
+            }
+            long from = getTime(redis.time()) - cacheTimeMillis;
+
+            // IDs are handed out in order and values are never updated in place, so stop at the first one that's too old
+            long next = Math.min(beforeID - 1L, Long.parseLong(idx));
+            boolean done = false;
+            while(next > 0L && !done && retVal.size() < size) {
+                // One MGET for a page of values, then one for the IPs they point to
+                int count = (int) Math.min(Math.min(BATCH_SIZE, size - retVal.size()), next);
+                String[] keys = new String[count];
+                for(int i = 0; i < count; i++) {
+                    keys[i] = prefix + "vpn_values:" + (next - i);
+                }
+                List<String> values = redis.mget(keys);
+
+                JSONObject[] objs = new JSONObject[count];
+                long[] ipIDs = new long[count];
+                Map<Long, String> ips = new HashMap<>();
+                for(int i = 0; i < count; i++) {
+                    String json = values.get(i);
+                    if(json == null) {
+                        continue;
+                    }
+                    try {
+                        objs[i] = JSONUtil.parseObject(json);
+                        ipIDs[i] = ((Number) objs[i].get("ipID")).longValue();
+                        ips.put(ipIDs[i], null);
+                    } catch(ParseException | ClassCastException ex) {
+                        objs[i] = null;
+                        logger.warn("Could not get VPN data for ID " + (next - i) + ".", ex);
+                    }
+                }
+                if(!ips.isEmpty()) {
+                    List<Long> ipIDList = new ArrayList<>(ips.keySet());
+                    String[] ipKeys = new String[ipIDList.size()];
+                    for(int i = 0; i < ipKeys.length; i++) {
+                        ipKeys[i] = prefix + "ips:" + ipIDList.get(i);
+                    }
+                    List<String> ipValues = redis.mget(ipKeys);
+                    for(int i = 0; i < ipKeys.length; i++) {
+                        ips.put(ipIDList.get(i), ipValues.get(i));
+                    }
+                }
+
+                for(int i = 0; i < count && retVal.size() < size; i++) {
+                    if(objs[i] == null) {
+                        continue;
+                    }
+                    VPNResult r = null;
+                    try {
+                        r = getVPNResult(next - i, objs[i], ipIDs[i], ips.get(ipIDs[i]), redis);
+                    } catch(StorageException | JedisException | ParseException | ClassCastException ex) {
+                        logger.warn("Could not get VPN data for ID " + (next - i) + ".", ex);
+                    }
+                    if(r == null) {
+                        continue;
+                    }
+                    if(r.getCreated() < from) {
+                        done = true;
+                        break;
+                    }
+                    retVal.add(r);
+                }
+                next -= count;
+            }
+
+            return retVal;
+        } catch(JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public long deleteVPN(IPKey network, int prefixLength) throws StorageException {
+        if(network == null) {
+            throw new IllegalArgumentException("network cannot be null.");
+        }
+
+        try(Jedis redis = pool.getResource()) {
+            Set<Long> ipIDs = new HashSet<>();
+            if(prefixLength == (network.isIPv4() ? 32 : 128)) {
+                // IP to ID mappings have been written under both names
+                for(String json : redis.mget(prefix + "ips:" + network, prefix + "ip:" + network)) {
+                    if(json == null) {
+                        continue;
+                    }
+                    try {
+                        ipIDs.add(((Number) JSONUtil.parseObject(json).get("longID")).longValue());
+                    } catch(ParseException | ClassCastException ex) {
+                        logger.warn("Could not get IP data for " + network + ".", ex);
+                    }
+                }
+            } else {
+                // IPs are stored as strings, so ranges have to walk every stored IP
+                long max = Long.parseLong(redis.get(prefix + "ips:idx"));
+                for(long first = 1L; first <= max; first += BATCH_SIZE) {
+                    String[] keys = new String[(int) Math.min(BATCH_SIZE, max - first + 1L)];
+                    for(int i = 0; i < keys.length; i++) {
+                        keys[i] = prefix + "ips:" + (first + i);
+                    }
+                    List<String> values = redis.mget(keys);
+                    for(int i = 0; i < keys.length; i++) {
+                        String json = values.get(i);
+                        if(json == null) {
+                            continue;
+                        }
+                        try {
+                            String ip = (String) JSONUtil.parseObject(json).get("ip");
+                            Optional<IPKey> ipKey = IPKey.parse(ip);
+                            if(ipKey.isPresent() && ipKey.get().isIn(network, prefixLength)) {
+                                ipIDs.add(first + i);
+                            }
+                        } catch(ParseException | ClassCastException ex) {
+                            logger.warn("Could not get IP data for ID " + (first + i) + ".", ex);
+                        }
+                    }
+                }
+            }
+            if(ipIDs.isEmpty()) {
+                return 0L;
+            }
+
+            // Every value is also listed against its IP, so there's no need to walk all values
+            List<String> lists = new ArrayList<>();
+            for(long ipID : ipIDs) {
+                lists.add(prefix + "vpn:ip:" + ipID);
+                lists.add(prefix + "vpn_values:ip:" + ipID);
+            }
+            Pipeline pipeline = redis.pipelined();
+            List<Response<List<String>>> responses = new ArrayList<>();
+            for(String list : lists) {
+                responses.add(pipeline.lrange(list, 0L, -1L));
+            }
+            pipeline.sync();
+
+            Set<String> valueKeys = new HashSet<>();
+            for(Response<List<String>> response : responses) {
+                for(String json : response.get()) {
+                    try {
+                        valueKeys.add(prefix + "vpn_values:" + ((Number) JSONUtil.parseObject(json).get("id")).longValue());
+                    } catch(ParseException | ClassCastException ex) {
+                        logger.warn("Could not get VPN data for " + json + ".", ex);
+                    }
+                }
+            }
+
+            long retVal = 0L;
+            List<String> batch = new ArrayList<>();
+            for(String key : valueKeys) {
+                batch.add(key);
+                if(batch.size() == BATCH_SIZE) {
+                    retVal += redis.del(batch.toArray(new String[0]));
+                    batch.clear();
+                }
+            }
+            if(!batch.isEmpty()) {
+                retVal += redis.del(batch.toArray(new String[0]));
+            }
+            for(int i = 0; i < lists.size(); i += BATCH_SIZE) {
+                redis.del(lists.subList(i, Math.min(lists.size(), i + BATCH_SIZE)).toArray(new String[0]));
+            }
+            return retVal;
+        } catch(JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public PostVPNResult postVPN(IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus) throws StorageException {
         try(Jedis redis = pool.getResource()) {
             long longIPID = longIPIDCache.get(ip);
 
@@ -242,10 +424,10 @@ public class Redis implements Storage {
         }
     }
 
-    public void setIPRaw(long longIPID, String ip) throws StorageException {
+    public void setIPRaw(long longIPID, IPKey ip) throws StorageException {
         try(Jedis redis = pool.getResource()) {
             JSONObject obj = new JSONObject();
-            obj.put("ip", ip);
+            obj.put("ip", ip.toString());
 
             JSONObject obj2 = new JSONObject();
             obj2.put("longID", longIPID);
@@ -296,7 +478,7 @@ public class Redis implements Storage {
         }
     }
 
-    public long getLongIPID(String ip) {
+    public long getLongIPID(IPKey ip) {
         return longIPIDCache.get(ip);
     }
 
@@ -317,14 +499,15 @@ public class Redis implements Storage {
                     }
                     JSONObject obj = JSONUtil.parseObject(json);
                     String ip = (String) obj.get("ip");
-                    if(!ValidationUtil.isValidIp(ip)) {
+                    Optional<IPKey> ipKey = IPKey.parse(ip);
+                    if(!ipKey.isPresent()) {
                         logger.warn("Player ID " + i + " has an invalid IP \"" + ip + "\".");
                         continue;
                     }
 
                     r = new IPResult(
                             i,
-                            ip
+                            ipKey.get()
                     );
                 } catch(ParseException | ClassCastException ex) {
                     logger.warn("Could not get IP data for ID " + i + ".", ex);
@@ -351,7 +534,7 @@ public class Redis implements Storage {
                 max = Math.max(max, ip.getLongIPID());
 
                 JSONObject obj = new JSONObject();
-                obj.put("ip", ip.getIP());
+                obj.put("ip", ip.getIP().toString());
 
                 JSONObject obj2 = new JSONObject();
                 obj2.put("longID", ip.getLongIPID());
@@ -498,24 +681,28 @@ public class Redis implements Storage {
 
         JSONObject obj = JSONUtil.parseObject(json);
         long longIPID = ((Number) obj.get("ipID")).longValue();
+        return getVPNResult(id, obj, longIPID, redis.get(prefix + "ips:" + longIPID), redis);
+    }
+
+    private VPNResult getVPNResult(long id, JSONObject obj, long longIPID, String ipJSON, Jedis redis) throws StorageException, JedisException, ParseException, ClassCastException {
         Optional<Boolean> cascade = obj.get("cascade") == null ? Optional.empty() : Optional.of((Boolean) obj.get("cascade"));
         Optional<Double> consensus = obj.get("consensus") == null ? Optional.empty() : Optional.of(((Number) obj.get("consensus")).doubleValue());
         long created = ((Number) obj.get("created")).longValue();
 
-        String ipJSON = redis.get(prefix + "ips:" + longIPID);
         if(ipJSON == null) {
             throw new StorageException(false, "Could not get IP data for ID " + longIPID + ".");
         }
         JSONObject ipObj = JSONUtil.parseObject(ipJSON);
         String ip = (String) ipObj.get("ip");
-        if(!ValidationUtil.isValidIp(ip)) {
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
             redis.del(prefix + "ips:" + longIPID);
             throw new StorageException(false, "IP ID " + longIPID + " has an invalid IP \"" + ip + "\".");
         }
 
         return new VPNResult(
                 id,
-                ip,
+                ipKey.get(),
                 cascade,
                 consensus,
                 created
@@ -543,14 +730,15 @@ public class Redis implements Storage {
         }
         JSONObject ipObj = JSONUtil.parseObject(ipJSON);
         String ip = (String) ipObj.get("ip");
-        if(!ValidationUtil.isValidIp(ip)) {
+        Optional<IPKey> ipKey = IPKey.parse(ip);
+        if(!ipKey.isPresent()) {
             redis.del(prefix + "ips:" + longIPID);
             throw new StorageException(false, "IP ID " + longIPID + " has an invalid IP \"" + ip + "\".");
         }
 
         return new VPNResult(
                 id,
-                ip,
+                ipKey.get(),
                 cascade,
                 consensus,
                 created
@@ -574,7 +762,7 @@ public class Redis implements Storage {
         } while(!result.isCompleteIteration());
     }
 
-    private long getLongIPIDExpensive(String ip) throws StorageException {
+    private long getLongIPIDExpensive(IPKey ip) throws StorageException {
         try(Jedis redis = pool.getResource()) {
             // A majority of the time there'll be an ID
             String json = redis.get(prefix + "ips:" + ip);
@@ -593,7 +781,7 @@ public class Redis implements Storage {
 
             // No ID, generate one
             JSONObject obj = new JSONObject();
-            obj.put("ip", ip);
+            obj.put("ip", ip.toString());
 
             JSONObject obj2 = new JSONObject();
 
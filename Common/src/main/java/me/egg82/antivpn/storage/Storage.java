@@ -1,5 +1,6 @@
 package me.egg82.antivpn.storage;
 
+import me.egg82.antivpn.core.IPKey;
 import me.egg82.antivpn.core.IPResult;
 import me.egg82.antivpn.core.PlayerResult;
 import me.egg82.antivpn.core.PostVPNResult;
@@ -17,19 +18,42 @@ public interface Storage {
 
     Set<VPNResult> getVPNQueue() throws StorageException;
 
-    VPNResult getVPNByIP(String ip, long cacheTimeMillis) throws StorageException;
-
-    default PostVPNResult postVPN(String ip, boolean cascade) throws StorageException {
+    VPNResult getVPNByIP(IPKey ip, long cacheTimeMillis) throws StorageException;
+
+    /**
+     * Gets a page of recent VPN results, highest ID first
+     * Call again with the lowest ID returned for the next page, until an empty set comes back
+     *
+     * @param beforeID Only get results with an ID lower than this, or Long.MAX_VALUE to start from the newest
+     * @param cacheTimeMillis Only get results created within this many milliseconds
+     * @param size The maximum number of results to get
+     * @return The page of results
+     * @throws StorageException if the results could not be fetched
+     */
+    Set<VPNResult> getRecentVPN(long beforeID, long cacheTimeMillis, int size) throws StorageException;
+
+    default PostVPNResult postVPN(IPKey ip, boolean cascade) throws StorageException {
         return postVPN(ip, Optional.of(cascade), Optional.empty());
     }
 
-    default PostVPNResult postVPN(String ip, double consensus) throws StorageException {
+    default PostVPNResult postVPN(IPKey ip, double consensus) throws StorageException {
         return postVPN(ip, Optional.empty(), Optional.of(consensus));
     }
 
-    PostVPNResult postVPN(String ip, Optional<Boolean> cascade, Optional<Double> consensus) throws StorageException;
+    PostVPNResult postVPN(IPKey ip, Optional<Boolean> cascade, Optional<Double> consensus) throws StorageException;
+
+    /**
+     * Deletes every VPN result for the IPs in a range
+     * A single IP is cheap, but IPs are stored as strings, so a range reads every stored IP to find the ones in it
+     *
+     * @param network Any address in the range
+     * @param prefixLength The range's prefix length, which is the full address length for a single IP
+     * @return The number of results deleted
+     * @throws StorageException if the results could not be deleted
+     */
+    long deleteVPN(IPKey network, int prefixLength) throws StorageException;
 
-    void setIPRaw(long longIPID, String ip) throws StorageException;
+    void setIPRaw(long longIPID, IPKey ip) throws StorageException;
 
     void setPlayerRaw(long longPlayerID, UUID playerID) throws StorageException;
 
@@ -37,7 +61,7 @@ public interface Storage {
 
     long getLongPlayerID(UUID playerID);
 
-    long getLongIPID(String ip);
+    long getLongIPID(IPKey ip);
 
     Set<IPResult> dumpIPs(long begin, int size) throws StorageException;
 
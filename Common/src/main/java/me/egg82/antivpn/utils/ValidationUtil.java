@@ -1,19 +1,12 @@
 package me.egg82.antivpn.utils;
 
 import inet.ipaddr.AddressStringException;
+import inet.ipaddr.AddressValueException;
+import inet.ipaddr.IPAddress;
 import inet.ipaddr.IPAddressString;
-
-import java.util.regex.Pattern;
+import inet.ipaddr.IncompatibleAddressException;
 
 public class ValidationUtil {
-    /**
-     * UUID_PATTERN_6 compiled and benchmarked from
-     * https://github.com/tinnet/java-uuid-validation-benchmark
-     * Results on my machine, 06/22/18: https://pastebin.com/hWs62pV2
-     * Update: modified for less-than-great UUIDs
-     */
-    private static final Pattern uuidValidator = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$", Pattern.CASE_INSENSITIVE);
-
     private ValidationUtil() {
     }
 
@@ -22,8 +15,9 @@ public class ValidationUtil {
             return false;
         }
         try {
-            return new IPAddressString(range).toAddress().isMultiple();
-        } catch(AddressStringException ignored) {
+            IPAddress address = new IPAddressString(range).toAddress();
+            return address != null && address.isMultiple();
+        } catch(AddressStringException | AddressValueException | IncompatibleAddressException ignored) {
             return false;
         }
     }
@@ -32,17 +26,130 @@ public class ValidationUtil {
         if(ip == null || ip.isEmpty()) {
             return false;
         }
+        // Plain dotted-quad and hex-colon forms are by far the most common, so check those without allocating
+        // Anything else (zones, prefixes, inet_aton forms, leading zeroes, etc) goes to the library
+        if(isPlainIPv4(ip, 0, ip.length()) || isPlainIPv6(ip)) {
+            return true;
+        }
         try {
-            return !new IPAddressString(ip).toAddress().isMultiple();
-        } catch(AddressStringException ignored) {
+            IPAddress address = new IPAddressString(ip).toAddress();
+            return address != null && !address.isMultiple();
+        } catch(AddressStringException | AddressValueException | IncompatibleAddressException ignored) {
             return false;
         }
     }
 
     public static boolean isValidUuid(String uuid) {
-        if(uuid == null || uuid.isEmpty()) {
+        if(uuid == null || uuid.length() != 36) {
             return false;
         }
-        return uuidValidator.matcher(uuid).matches();
+        // 8-4-4-4-12 hex digits, either case
+        for(int i = 0; i < 36; i++) {
+            char c = uuid.charAt(i);
+            if(i == 8 || i == 13 || i == 18 || i == 23) {
+                if(c != '-') {
+                    return false;
+                }
+            } else if(hexValue(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPlainIPv4(String ip, int start, int end) {
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for(int i = start; i < end; i++) {
+            char c = ip.charAt(i);
+            if(c == '.') {
+                if(digits == 0 || ++octets > 3) {
+                    return false;
+                }
+                value = 0;
+                digits = 0;
+            } else if(c >= '0' && c <= '9') {
+                if(digits > 0 && value == 0) {
+                    return false; // Leading zero
+                }
+                value = value * 10 + (c - '0');
+                if(++digits > 3 || value > 255) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return octets == 3 && digits > 0;
+    }
+
+    private static boolean isPlainIPv6(String ip) {
+        int length = ip.length();
+        if(length < 2 || length > 45) {
+            return false;
+        }
+
+        int groups = 0;
+        int digits = 0;
+        boolean compressed = false;
+        int groupStart = 0;
+        for(int i = 0; i < length; i++) {
+            char c = ip.charAt(i);
+            if(c == ':') {
+                if(i + 1 < length && ip.charAt(i + 1) == ':') {
+                    if(compressed) {
+                        return false;
+                    }
+                    compressed = true;
+                    if(digits > 0) {
+                        groups++;
+                    } else if(i != 0) {
+                        return false; // ":::" or a group ending in ":" before "::"
+                    }
+                    digits = 0;
+                    i++;
+                    groupStart = i + 1;
+                    continue;
+                }
+                if(digits == 0 || i == length - 1) {
+                    return false;
+                }
+                groups++;
+                digits = 0;
+                groupStart = i + 1;
+            } else if(c == '.') {
+                // Embedded IPv4 in the last two groups
+                if(!isPlainIPv4(ip, groupStart, length)) {
+                    return false;
+                }
+                groups += 2;
+                digits = 0;
+                break;
+            } else if(hexValue(c) >= 0) {
+                if(++digits > 4) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        if(digits > 0) {
+            groups++;
+        }
+        return compressed ? groups < 8 : groups == 8;
+    }
+
+    private static int hexValue(char c) {
+        if(c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if(c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if(c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
     }
 }
@@ -0,0 +1,170 @@
+package me.egg82.antivpn.utils;
+
+import inet.ipaddr.AddressStringException;
+import inet.ipaddr.AddressValueException;
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import inet.ipaddr.IncompatibleAddressException;
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks the allocation-free parsers against the library and regex they replaced
+ */
+class ValidationUtilTest {
+    private static final Pattern UUID_PATTERN = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$", Pattern.CASE_INSENSITIVE);
+
+    @Test
+    void ipv4MatchesLibrary() {
+        assertMatchesLibrary(
+                "1.2.3.4",
+                "0.0.0.0",
+                "255.255.255.255",
+                "256.1.1.1",
+                "1.2.3.256",
+                "1.2.3",
+                "1.2.3.4.5",
+                "1..2.3",
+                ".1.2.3",
+                "1.2.3.4.",
+                "1.2.3.4 ",
+                "1.2.3.-4",
+                "1.2.3.4/24",
+                "1.2.3.*"
+        );
+    }
+
+    @Test
+    void ipv4LeadingZeroesMatchLibrary() {
+        assertMatchesLibrary(
+                "01.2.3.4",
+                "1.02.3.4",
+                "1.2.3.04",
+                "001.2.3.4",
+                "000.0.0.0",
+                "1.2.3.00",
+                "0x1.2.3.4"
+        );
+    }
+
+    @Test
+    void ipv6MatchesLibrary() {
+        assertMatchesLibrary(
+                "1:2:3:4:5:6:7:8",
+                "1:2:3:4:5:6:7",
+                "1:2:3:4:5:6:7:8:9",
+                "1:2:3:4:5:6:7:",
+                ":1:2:3:4:5:6:7",
+                "2001:db8:0:0:0:0:0:1",
+                "2001:DB8::1",
+                "FE80::ABCD",
+                "0001::1",
+                "00001::1",
+                "1:2:3:4:5:6:7:g",
+                "::/64"
+        );
+    }
+
+    @Test
+    void ipv6CompressionMatchesLibrary() {
+        // "::" at the start, at the end, and between each pair of groups
+        assertMatchesLibrary(
+                "::",
+                "::1",
+                "1::",
+                "::2:3:4:5:6:7:8",
+                "1::3:4:5:6:7:8",
+                "1:2::4:5:6:7:8",
+                "1:2:3::5:6:7:8",
+                "1:2:3:4::6:7:8",
+                "1:2:3:4:5::7:8",
+                "1:2:3:4:5:6::8",
+                "1:2:3:4:5:6:7::",
+                "::1:2:3:4:5:6:7:8",
+                "1:2:3:4:5:6:7:8::",
+                "1:2:3:4::5:6:7:8",
+                "1::2::3",
+                ":::",
+                "1:::2",
+                ":1::2",
+                "1::2:",
+                ":::1"
+        );
+    }
+
+    @Test
+    void embeddedIPv4MatchesLibrary() {
+        assertMatchesLibrary(
+                "::ffff:1.2.3.4",
+                "::1.2.3.4",
+                "1:2:3:4:5:6:1.2.3.4",
+                "1:2:3:4:5:6:7:1.2.3.4",
+                "1::6:1.2.3.4",
+                "::ffff:01.2.3.4",
+                "::ffff:1.2.3",
+                "::ffff:256.2.3.4",
+                "::ffff:1.2.3.4:5",
+                "1.2.3.4::"
+        );
+    }
+
+    @Test
+    void zonesMatchLibrary() {
+        assertMatchesLibrary(
+                "fe80::1%eth0",
+                "fe80::1%1",
+                "fe80::1%",
+                "1.2.3.4%eth0"
+        );
+    }
+
+    @Test
+    void emptyIsInvalid() {
+        assertFalse(ValidationUtil.isValidIp(null));
+        assertFalse(ValidationUtil.isValidIp(""));
+        assertFalse(ValidationUtil.isValidUuid(null));
+        assertFalse(ValidationUtil.isValidUuid(""));
+    }
+
+    @Test
+    void uuidMatchesPattern() {
+        String[] uuids = {
+                "123e4567-e89b-12d3-a456-426614174000",
+                "123E4567-E89B-12D3-A456-426614174000",
+                "123e4567-E89B-12d3-A456-426614174000",
+                "00000000-0000-0000-0000-000000000000",
+                "ffffffff-ffff-ffff-ffff-ffffffffffff",
+                "123e4567e89b12d3a456426614174000",
+                "1-1-1-1-1",
+                "123e4567-e89b-12d3-a456-42661417400",
+                "123e4567-e89b-12d3-a456-4266141740000",
+                "123e4567-e89b-12d3-a4567-26614174000",
+                "123e4567-e89b-12d3-a456_426614174000",
+                "123e4567-e89b-12d3-a456-42661417400g",
+                "{123e4567-e89b-12d3-a456-426614174000}",
+                " 123e4567-e89b-12d3-a456-42661417400"
+        };
+        for(String uuid : uuids) {
+            assertEquals(UUID_PATTERN.matcher(uuid).matches(), ValidationUtil.isValidUuid(uuid), uuid);
+        }
+    }
+
+    private static void assertMatchesLibrary(String... ips) {
+        for(String ip : ips) {
+            assertEquals(isValidIpLibrary(ip), ValidationUtil.isValidIp(ip), ip);
+        }
+    }
+
+    private static boolean isValidIpLibrary(String ip) {
+        try {
+            IPAddress address = new IPAddressString(ip).toAddress();
+            return address != null && !address.isMultiple();
+        } catch(AddressStringException | AddressValueException | IncompatibleAddressException ignored) {
+            return false;
+        }
+    }
+}
@@ -157,6 +157,12 @@ public class AntiVPN {
             }
         });
 
+        this.commandManager.getCommandConditions().addCondition(String.class, "range", (c, exec, value) -> {
+            if(!ValidationUtil.isValidIp(value) && !ValidationUtil.isValidIPRange(value)) {
+                throw new ConditionFailedException("Value must be a valid IP address or range.");
+            }
+        });
+
         this.commandManager.getCommandConditions().addCondition(String.class, "source", (c, exec, value) -> {
             Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
             if(!cachedConfig.isPresent()) {
@@ -260,6 +266,7 @@ public class AntiVPN {
             storageMessagingHandler = Optional.empty();
         }
         storageMessagingHandler.ifPresent(StorageMessagingHandler::close);
+        VPNAPI.close();
     }
 
     public boolean loadYamlLanguageFile(VelocityLocales locales, File file, Locale locale) throws IOException {
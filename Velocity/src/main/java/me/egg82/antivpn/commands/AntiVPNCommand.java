@@ -17,6 +17,7 @@ import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.plugin.PluginDescription;
 import com.velocitypowered.api.proxy.ProxyServer;
 import me.egg82.antivpn.commands.internal.CheckCommand;
+import me.egg82.antivpn.commands.internal.ForgetCommand;
 import me.egg82.antivpn.commands.internal.ImportCommand;
 import me.egg82.antivpn.commands.internal.ReloadCommand;
 import me.egg82.antivpn.commands.internal.ScoreCommand;
@@ -91,6 +92,15 @@ public class AntiVPNCommand extends BaseCommand {
         new CheckCommand(issuer, proxy, type).run();
     }
 
+    @Subcommand("forget")
+    @CommandPermission("avpn.admin")
+    @Description("{@@description.forget}")
+    @Syntax("<ip|range>")
+    @CommandCompletion("@nothing")
+    public void onForget(CommandIssuer issuer, @Conditions("range") String range) {
+        new ForgetCommand(issuer, range).run();
+    }
+
     @CatchUnknown
     @Default
     @CommandCompletion("@subcommand")
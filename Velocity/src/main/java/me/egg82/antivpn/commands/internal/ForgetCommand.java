@@ -0,0 +1,40 @@
+package me.egg82.antivpn.commands.internal;
+
+import co.aikar.commands.CommandIssuer;
+import me.egg82.antivpn.APIException;
+import me.egg82.antivpn.VPNAPI;
+import me.egg82.antivpn.enums.Message;
+import me.egg82.antivpn.utils.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ForgetCommand implements Runnable {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final CommandIssuer issuer;
+    private final String range;
+
+    private final VPNAPI api = VPNAPI.getInstance();
+
+    public ForgetCommand(CommandIssuer issuer, String range) {
+        this.issuer = issuer;
+        this.range = range;
+    }
+
+    public void run() {
+        issuer.sendInfo(Message.FORGET__BEGIN, "{range}", range);
+
+        try {
+            long count = api.forget(range);
+            issuer.sendInfo(Message.FORGET__END, "{range}", range, "{count}", String.valueOf(count));
+            return;
+        } catch(APIException ex) {
+            if(ConfigUtil.getDebugOrFalse()) {
+                logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
+            } else {
+                logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage());
+            }
+        }
+        issuer.sendError(Message.ERROR__INTERNAL);
+    }
+}
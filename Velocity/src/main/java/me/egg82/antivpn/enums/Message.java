@@ -43,6 +43,9 @@ public enum Message implements MessageKeyProvider {
     TEST__NO_VPN_DETECTED,
     TEST__END,
 
+    FORGET__BEGIN,
+    FORGET__END,
+
     RELOAD__BEGIN,
     RELOAD__END;
 
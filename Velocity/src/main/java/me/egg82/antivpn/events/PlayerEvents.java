@@ -1,12 +1,12 @@
 package me.egg82.antivpn.events;
 
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.PostOrder;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.PostLoginEvent;
 import com.velocitypowered.api.event.connection.PreLoginEvent;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
-import inet.ipaddr.IPAddressString;
 import me.egg82.antivpn.APIException;
 import me.egg82.antivpn.VPNAPI;
 import me.egg82.antivpn.enums.VPNAlgorithmMethod;
@@ -29,6 +29,7 @@ import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class PlayerEvents {
 
@@ -41,119 +42,117 @@ public class PlayerEvents {
     }
 
     @Subscribe(order = PostOrder.LATE)
-    public void cachePlayer(PreLoginEvent event) {
-        String ip = getIp(event.getConnection().getRemoteAddress());
-        if(ip == null || ip.isEmpty()) {
-            return;
+    public EventTask cachePlayer(PreLoginEvent event) {
+        InetAddress address = getAddress(event.getConnection().getRemoteAddress());
+        if(address == null) {
+            return null;
         }
+        String ip = address.getHostAddress();
 
         Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
         if(!cachedConfig.isPresent()) {
-            return;
+            return null;
         }
 
-        UUID playerID = getPlayerUUID(event.getUsername(), proxy);
-        if(playerID == null) {
-            proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(ip).color(NamedTextColor.WHITE)).append(Component.text(" is using an invalid player name ").color(NamedTextColor.YELLOW)).append(Component.text(event.getUsername()).color(NamedTextColor.WHITE)).append(Component.text(". Skipping pre-login cache and letting Velocity validate the request before checking.").color(NamedTextColor.YELLOW)));
-            return;
-        }
+        // The UUID lookup can go out to Mojang, so it runs on the lookup pool along with the VPN lookup
+        // The login is resumed once both complete, without holding an event thread
+        CompletableFuture<?> lookup = api.supplyAsync(() -> getPlayerUUID(event.getUsername(), proxy)).thenCompose(playerID -> {
+            if(playerID == null) {
+                proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(ip).color(NamedTextColor.WHITE)).append(Component.text(" is using an invalid player name ").color(NamedTextColor.YELLOW)).append(Component.text(event.getUsername()).color(NamedTextColor.WHITE)).append(Component.text(". Skipping pre-login cache and letting Velocity validate the request before checking.").color(NamedTextColor.YELLOW)));
+                return CompletableFuture.<Void>completedFuture(null);
+            }
 
-        for(String testAddress : cachedConfig.get().getIgnoredIps()) {
-            if(
-                    ValidationUtil.isValidIp(testAddress) && ip.equalsIgnoreCase(testAddress)
-                            || ValidationUtil.isValidIPRange(testAddress) && rangeContains(testAddress, ip)
-            ) {
-                return;
+            if(cachedConfig.get().getIgnoredIpMatcher().contains(address)) {
+                return CompletableFuture.<Void>completedFuture(null);
             }
-        }
 
-        if((!cachedConfig.get().getVPNKickMessage().isEmpty() || !cachedConfig.get().getVPNActionCommands().isEmpty())) {
-            if(cachedConfig.get().getVPNAlgorithmMethod() == VPNAlgorithmMethod.CONSESNSUS) {
-                try {
-                    api.consensus(ip); // Calling this will cache the result internally, even if the value is unused
-                } catch(APIException ex) {
-                    logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
-                }
-            } else {
-                try {
-                    api.cascade(ip); // Calling this will cache the result internally, even if the value is unused
-                } catch(APIException ex) {
-                    logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
+            if((!cachedConfig.get().getVPNKickMessage().isEmpty() || !cachedConfig.get().getVPNActionCommands().isEmpty())) {
+                // Calling this will cache the result internally, even if the value is unused
+                if(cachedConfig.get().getVPNAlgorithmMethod() == VPNAlgorithmMethod.CONSESNSUS) {
+                    return api.consensusAsync(ip).thenAccept(v -> { });
                 }
+                return api.cascadeAsync(ip).thenAccept(v -> { });
             }
-        }
+            return CompletableFuture.<Void>completedFuture(null);
+        }).exceptionally(ex -> {
+            logError(ex);
+            return null;
+        });
+        return EventTask.resumeWhenComplete(lookup);
     }
 
     @Subscribe(order = PostOrder.FIRST)
-    public void checkPlayer(PostLoginEvent event) {
-        String ip = getIp(event.getPlayer().getRemoteAddress());
-        if(ip == null || ip.isEmpty()) {
-            return;
+    public EventTask checkPlayer(PostLoginEvent event) {
+        InetAddress address = getAddress(event.getPlayer().getRemoteAddress());
+        if(address == null) {
+            return null;
         }
+        String ip = address.getHostAddress();
 
         Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
         if(!cachedConfig.isPresent()) {
-            return;
+            return null;
         }
 
         if(event.getPlayer().hasPermission("avpn.bypass")) {
             if(ConfigUtil.getDebugOrFalse()) {
                 proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)).append(Component.text(" bypasses check. Ignoring.").color(NamedTextColor.YELLOW)));
             }
-            return;
+            return null;
         }
 
-        for(String testAddress : cachedConfig.get().getIgnoredIps()) {
-            if(ValidationUtil.isValidIp(testAddress) && ip.equalsIgnoreCase(testAddress)) {
-                if(ConfigUtil.getDebugOrFalse()) {
+        String ignoredBy = cachedConfig.get().getIgnoredIpMatcher().match(address);
+        if(ignoredBy != null) {
+            if(ConfigUtil.getDebugOrFalse()) {
+                if(ValidationUtil.isValidIp(ignoredBy)) {
                     proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)).append(Component.text(" is using an ignored IP ").color(NamedTextColor.YELLOW)).append(Component.text(ip).color(NamedTextColor.WHITE)).append(Component.text(". Ignoring.").color(NamedTextColor.YELLOW)));
+                } else {
+                    proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)).append(Component.text(" is under an ignored range ").color(NamedTextColor.YELLOW)).append(Component.text(ignoredBy + " (" + ip + ")").color(NamedTextColor.WHITE)).append(Component.text(". Ignoring.").color(NamedTextColor.YELLOW)));
                 }
-                return;
-            } else if(ValidationUtil.isValidIPRange(testAddress) && rangeContains(testAddress, ip)) {
-                if(ConfigUtil.getDebugOrFalse()) {
-                    proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)).append(Component.text(" is under an ignored range ").color(NamedTextColor.YELLOW)).append(Component.text(testAddress + " (" + ip + ")").color(NamedTextColor.WHITE)).append(Component.text(". Ignoring.").color(NamedTextColor.YELLOW)));
-                }
-                return;
             }
+            return null;
         }
 
         if(!cachedConfig.get().getVPNKickMessage().isEmpty() || !cachedConfig.get().getVPNActionCommands().isEmpty()) {
-            boolean isVPN;
-
+            CompletableFuture<Boolean> isVPN;
             if(cachedConfig.get().getVPNAlgorithmMethod() == VPNAlgorithmMethod.CONSESNSUS) {
-                try {
-                    isVPN = api.consensus(ip) >= cachedConfig.get().getVPNAlgorithmConsensus();
-                } catch(APIException ex) {
-                    logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
-                    isVPN = false;
-                }
+                isVPN = api.consensusAsync(ip).thenApply(v -> v >= cachedConfig.get().getVPNAlgorithmConsensus());
             } else {
-                try {
-                    isVPN = api.cascade(ip);
-                } catch(APIException ex) {
-                    logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
-                    isVPN = false;
-                }
+                isVPN = api.cascadeAsync(ip);
             }
 
-            if(isVPN) {
-                AnalyticsHelper.incrementBlockedVPNs();
-                if(ConfigUtil.getDebugOrFalse()) {
-                    proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)).append(Component.text(" found using a VPN. Running required actions.").color(NamedTextColor.DARK_RED)));
+            return EventTask.resumeWhenComplete(isVPN.handle((v, ex) -> {
+                if(ex != null) {
+                    logError(ex);
+                    v = Boolean.FALSE;
                 }
 
-                tryRunCommands(cachedConfig.get().getVPNActionCommands(), event.getPlayer(), ip);
-                tryKickPlayer(cachedConfig.get().getVPNKickMessage(), event.getPlayer(), event);
-            } else {
-                if(ConfigUtil.getDebugOrFalse()) {
-                    proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)).append(Component.text(" passed VPN check.").color(NamedTextColor.GREEN)));
+                if(v) {
+                    AnalyticsHelper.incrementBlockedVPNs();
+                    if(ConfigUtil.getDebugOrFalse()) {
+                        proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)).append(Component.text(" found using a VPN. Running required actions.").color(NamedTextColor.DARK_RED)));
+                    }
+
+                    tryRunCommands(cachedConfig.get().getVPNActionCommands(), event.getPlayer(), ip);
+                    tryKickPlayer(cachedConfig.get().getVPNKickMessage(), event.getPlayer(), event);
+                } else {
+                    if(ConfigUtil.getDebugOrFalse()) {
+                        proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)).append(Component.text(" passed VPN check.").color(NamedTextColor.GREEN)));
+                    }
                 }
-            }
+                return null;
+            }));
         } else {
             if(ConfigUtil.getDebugOrFalse()) {
                 proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text("VPN set to API-only. Ignoring VPN check for ").color(NamedTextColor.YELLOW)).append(Component.text(event.getPlayer().getUsername()).color(NamedTextColor.WHITE)));
             }
         }
+        return null;
+    }
+
+    private void logError(Throwable ex) {
+        APIException apiEx = VPNAPI.getAPIException(ex);
+        logger.error("[Hard: " + apiEx.isHard() + "] " + apiEx.getMessage(), apiEx);
     }
 
     private void tryRunCommands(List<String> commands, Player player, String ip) {
@@ -182,18 +181,10 @@ public class PlayerEvents {
         player.disconnect(LegacyComponentSerializer.legacyAmpersand().deserialize(message));
     }
 
-    private String getIp(InetSocketAddress address) {
+    private InetAddress getAddress(InetSocketAddress address) {
         if(address == null) {
             return null;
         }
-        InetAddress host = address.getAddress();
-        if(host == null) {
-            return null;
-        }
-        return host.getHostAddress();
-    }
-
-    private boolean rangeContains(String range, String ip) {
-        return new IPAddressString(range).contains(new IPAddressString(ip));
+        return address.getAddress();
     }
 }
@@ -10,6 +10,7 @@ import me.egg82.antivpn.messaging.Messaging;
 import me.egg82.antivpn.messaging.MessagingException;
 import me.egg82.antivpn.messaging.RabbitMQ;
 import me.egg82.antivpn.services.MessagingHandler;
+import me.egg82.antivpn.services.OffHeapVerdictCache;
 import me.egg82.antivpn.services.StorageHandler;
 import me.egg82.antivpn.storage.MySQL;
 import me.egg82.antivpn.storage.SQLite;
@@ -152,6 +153,9 @@ public class ConfigurationFileUtil {
                 i.remove();
             }
         }
+        for(SourceAPI source : sources.values()) {
+            source.load(config);
+        }
 
         if(debug) {
             for(String source : stringSources) {
@@ -165,8 +169,44 @@ public class ConfigurationFileUtil {
             sourceCacheTime = Optional.of(new TimeUtil.Time(6L, TimeUnit.HOURS));
         }
 
+        Optional<TimeUtil.Time> sourceStaleTime = TimeUtil.getTime(config.node("sources", "stale-time").getString("1day"));
+        if(!sourceStaleTime.isPresent()) {
+            logger.warn("sources.stale-time is not a valid time pattern. Using default value.");
+            sourceStaleTime = Optional.of(new TimeUtil.Time(1L, TimeUnit.DAYS));
+        }
+
         if(debug) {
             proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text("Source cache time: ").color(NamedTextColor.YELLOW)).append(Component.text(sourceCacheTime.get().getMillis() + "ms").color(NamedTextColor.WHITE)));
+            proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text("Source stale time: ").color(NamedTextColor.YELLOW)).append(Component.text(sourceStaleTime.get().getMillis() + "ms").color(NamedTextColor.WHITE)));
+        }
+
+        int circuitBreakerWindow = config.node("sources", "circuit-breaker", "window").getInt(20);
+        if(circuitBreakerWindow <= 0) {
+            logger.warn("sources.circuit-breaker.window cannot be <= 0. Using default value.");
+            circuitBreakerWindow = 20;
+        }
+        int circuitBreakerMinCalls = config.node("sources", "circuit-breaker", "min-calls").getInt(5);
+        circuitBreakerMinCalls = Math.max(1, Math.min(circuitBreakerWindow, circuitBreakerMinCalls));
+        double circuitBreakerErrorRate = config.node("sources", "circuit-breaker", "error-rate").getDouble(0.5d);
+        if(circuitBreakerErrorRate <= 0.0d) {
+            logger.warn("sources.circuit-breaker.error-rate cannot be <= 0. Using default value.");
+            circuitBreakerErrorRate = 0.5d;
+        }
+        circuitBreakerErrorRate = Math.min(1.0d, circuitBreakerErrorRate);
+
+        Optional<TimeUtil.Time> circuitBreakerBackoff = TimeUtil.getTime(config.node("sources", "circuit-breaker", "backoff").getString("30seconds"));
+        if(!circuitBreakerBackoff.isPresent() || circuitBreakerBackoff.get().getMillis() <= 0L) {
+            logger.warn("sources.circuit-breaker.backoff is not a valid time pattern. Using default value.");
+            circuitBreakerBackoff = Optional.of(new TimeUtil.Time(30L, TimeUnit.SECONDS));
+        }
+        Optional<TimeUtil.Time> circuitBreakerMaxBackoff = TimeUtil.getTime(config.node("sources", "circuit-breaker", "max-backoff").getString("30minutes"));
+        if(!circuitBreakerMaxBackoff.isPresent() || circuitBreakerMaxBackoff.get().getMillis() <= 0L) {
+            logger.warn("sources.circuit-breaker.max-backoff is not a valid time pattern. Using default value.");
+            circuitBreakerMaxBackoff = Optional.of(new TimeUtil.Time(30L, TimeUnit.MINUTES));
+        }
+        if(circuitBreakerMaxBackoff.get().getMillis() < circuitBreakerBackoff.get().getMillis()) {
+            logger.warn("sources.circuit-breaker.max-backoff cannot be less than sources.circuit-breaker.backoff. Using backoff value.");
+            circuitBreakerMaxBackoff = circuitBreakerBackoff;
         }
 
         Set<String> ignoredIps;
@@ -202,6 +242,63 @@ public class ConfigurationFileUtil {
             proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text("Memory cache time: ").color(NamedTextColor.YELLOW)).append(Component.text(cacheTime.get().getMillis() + "ms").color(NamedTextColor.WHITE)));
         }
 
+        int aggregationIPv4Prefix = config.node("connection", "aggregation", "ipv4-prefix").getInt(24);
+        if(aggregationIPv4Prefix < 1 || aggregationIPv4Prefix > 32) {
+            logger.warn("connection.aggregation.ipv4-prefix must be between 1 and 32. Using default value.");
+            aggregationIPv4Prefix = 24;
+        }
+        int aggregationIPv6Prefix = config.node("connection", "aggregation", "ipv6-prefix").getInt(64);
+        if(aggregationIPv6Prefix < 1 || aggregationIPv6Prefix > 128) {
+            logger.warn("connection.aggregation.ipv6-prefix must be between 1 and 128. Using default value.");
+            aggregationIPv6Prefix = 64;
+        }
+        int aggregationMinFlagged = config.node("connection", "aggregation", "min-flagged").getInt(3);
+        if(aggregationMinFlagged <= 0) {
+            logger.warn("connection.aggregation.min-flagged cannot be <= 0. Using default value.");
+            aggregationMinFlagged = 3;
+        }
+        boolean aggregationBlockTable = config.node("connection", "aggregation", "block-table", "enabled").getBoolean(false);
+        if(aggregationBlockTable && aggregationIPv4Prefix > 24) {
+            logger.warn("connection.aggregation.block-table requires connection.aggregation.ipv4-prefix to be 24 or lower. Disabling block table.");
+            aggregationBlockTable = false;
+        }
+        String aggregationBlockTableFile = config.node("connection", "aggregation", "block-table", "file").getString("blocks.dat");
+        Optional<TimeUtil.Time> aggregationBlockTableCleanTime = TimeUtil.getTime(config.node("connection", "aggregation", "block-table", "clean-time").getString("0s"));
+        if(!aggregationBlockTableCleanTime.isPresent()) {
+            logger.warn("connection.aggregation.block-table.clean-time is not a valid time pattern. Using default value.");
+            aggregationBlockTableCleanTime = Optional.of(new TimeUtil.Time(0L, TimeUnit.SECONDS));
+        }
+
+        int offHeapCacheSize = config.node("connection", "off-heap-cache", "size").getInt(1048576);
+        if(offHeapCacheSize < OffHeapVerdictCache.MIN_CAPACITY || offHeapCacheSize > OffHeapVerdictCache.MAX_CAPACITY) {
+            logger.warn("connection.off-heap-cache.size must be between " + OffHeapVerdictCache.MIN_CAPACITY + " and " + OffHeapVerdictCache.MAX_CAPACITY + ". Using default value.");
+            offHeapCacheSize = 1048576;
+        }
+        String offHeapCacheFile = config.node("connection", "off-heap-cache", "file").getString("results.dat");
+        String cacheFile = config.node("connection", "cache-file").getString("cache.dat");
+
+        int preloadMaxResults = config.node("connection", "preload", "max-results").getInt(10000);
+        if(preloadMaxResults <= 0) {
+            logger.warn("connection.preload.max-results cannot be <= 0. Using default value.");
+            preloadMaxResults = 10000;
+        }
+        Optional<TimeUtil.Time> preloadMaxAge = TimeUtil.getTime(config.node("connection", "preload", "max-age").getString("1hour"));
+        if(!preloadMaxAge.isPresent() || preloadMaxAge.get().getMillis() <= 0L) {
+            logger.warn("connection.preload.max-age is not a valid time pattern. Using default value.");
+            preloadMaxAge = Optional.of(new TimeUtil.Time(1L, TimeUnit.HOURS));
+        }
+
+        int httpPoolMaxIdle = config.node("connection", "http-pool", "max-idle").getInt(10);
+        if(httpPoolMaxIdle <= 0) {
+            logger.warn("connection.http-pool.max-idle cannot be <= 0. Using default value.");
+            httpPoolMaxIdle = 10;
+        }
+        Optional<TimeUtil.Time> httpPoolKeepAlive = TimeUtil.getTime(config.node("connection", "http-pool", "keep-alive").getString("5minutes"));
+        if(!httpPoolKeepAlive.isPresent() || httpPoolKeepAlive.get().getMillis() <= 0L) {
+            logger.warn("connection.http-pool.keep-alive is not a valid time pattern. Using default value.");
+            httpPoolKeepAlive = Optional.of(new TimeUtil.Time(5L, TimeUnit.MINUTES));
+        }
+
         List<String> vpnActionCommands;
         try {
             vpnActionCommands = new ArrayList<>(config.node("action", "vpn", "commands").getList(String.class));
@@ -225,20 +322,70 @@ public class ConfigurationFileUtil {
         double vpnAlgorithmConsensus = config.node("action", "vpn", "algorithm", "min-consensus").getDouble(0.6d);
         vpnAlgorithmConsensus = Math.max(0.0d, Math.min(1.0d, vpnAlgorithmConsensus));
 
+        long vpnAlgorithmHedgeDelay = config.node("action", "vpn", "algorithm", "hedge", "delay").getLong(-1L);
+        if(vpnAlgorithmHedgeDelay < -1L) {
+            logger.warn("action.vpn.algorithm.hedge.delay cannot be < -1. Using default value.");
+            vpnAlgorithmHedgeDelay = -1L;
+        }
+
+        Set<String> vpnAlgorithmAdaptivePinned;
+        try {
+            vpnAlgorithmAdaptivePinned = new LinkedHashSet<>(config.node("action", "vpn", "algorithm", "adaptive", "pinned").getList(String.class));
+        } catch(SerializationException ex) {
+            logger.error(ex.getMessage(), ex);
+            vpnAlgorithmAdaptivePinned = new LinkedHashSet<>();
+        }
+        for(Iterator<String> i = vpnAlgorithmAdaptivePinned.iterator(); i.hasNext(); ) {
+            String source = i.next();
+            if(!sources.containsKey(source)) {
+                if(debug) {
+                    proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text("Removed unused pinned source: ").color(NamedTextColor.DARK_RED)).append(Component.text(source).color(NamedTextColor.WHITE)));
+                }
+                i.remove();
+            }
+        }
+
         CachedConfigValues cachedValues = CachedConfigValues.builder()
                 .debug(debug)
                 .storage(storage)
                 .messaging(messaging)
                 .sources(sources)
                 .sourceCacheTime(sourceCacheTime.get())
+                .sourceStaleTime(sourceStaleTime.get())
+                .circuitBreakerWindow(circuitBreakerWindow)
+                .circuitBreakerMinCalls(circuitBreakerMinCalls)
+                .circuitBreakerErrorRate(circuitBreakerErrorRate)
+                .circuitBreakerBackoff(circuitBreakerBackoff.get())
+                .circuitBreakerMaxBackoff(circuitBreakerMaxBackoff.get())
                 .ignoredIps(ignoredIps)
                 .cacheTime(cacheTime.get())
+                .cacheFile(cacheFile.isEmpty() ? null : new File(new File(description.getSource().get().getParent().toFile(), description.getName().get()), cacheFile))
+                .preload(config.node("connection", "preload", "enabled").getBoolean(false))
+                .preloadMaxResults(preloadMaxResults)
+                .preloadMaxAge(preloadMaxAge.get())
                 .threads(config.node("connection", "threads").getInt(4))
                 .timeout(config.node("connection", "timeout").getLong(5000L))
+                .httpPoolMaxIdle(httpPoolMaxIdle)
+                .httpPoolKeepAlive(httpPoolKeepAlive.get())
+                .aggregation(config.node("connection", "aggregation", "enabled").getBoolean(false))
+                .aggregationIPv4Prefix(aggregationIPv4Prefix)
+                .aggregationIPv6Prefix(aggregationIPv6Prefix)
+                .aggregationMinFlagged(aggregationMinFlagged)
+                .aggregationBlockTable(aggregationBlockTable)
+                .aggregationBlockTableFile(aggregationBlockTableFile.isEmpty() ? null : new File(new File(description.getSource().get().getParent().toFile(), description.getName().get()), aggregationBlockTableFile))
+                .aggregationBlockTableCleanTime(aggregationBlockTableCleanTime.get())
+                .offHeapCache(config.node("connection", "off-heap-cache", "enabled").getBoolean(false))
+                .offHeapCacheSize(offHeapCacheSize)
+                .offHeapCacheFile(offHeapCacheFile.isEmpty() ? null : new File(new File(description.getSource().get().getParent().toFile(), description.getName().get()), offHeapCacheFile))
                 .vpnKickMessage(config.node("action", "vpn", "kick-message").getString("&cPlease disconnect from your proxy or VPN before re-joining!"))
                 .vpnActionCommands(vpnActionCommands)
                 .vpnAlgorithmMethod(vpnAlgorithmMethod)
                 .vpnAlgorithmConsensus(vpnAlgorithmConsensus)
+                .vpnAlgorithmEarlyExit(config.node("action", "vpn", "algorithm", "early-exit").getBoolean(false))
+                .vpnAlgorithmHedge(config.node("action", "vpn", "algorithm", "hedge", "enabled").getBoolean(false))
+                .vpnAlgorithmHedgeDelay(vpnAlgorithmHedgeDelay)
+                .vpnAlgorithmAdaptive(config.node("action", "vpn", "algorithm", "adaptive", "enabled").getBoolean(false))
+                .vpnAlgorithmAdaptivePinned(vpnAlgorithmAdaptivePinned)
                 .build();
 
         ConfigUtil.setConfiguration(config, cachedValues);
@@ -251,6 +398,7 @@ public class ConfigurationFileUtil {
         if(debug) {
             proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text("API threads: ").color(NamedTextColor.YELLOW)).append(Component.text(cachedValues.getThreads()).color(NamedTextColor.WHITE)));
             proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text("API timeout: ").color(NamedTextColor.YELLOW)).append(Component.text(cachedValues.getTimeout() + "ms").color(NamedTextColor.WHITE)));
+            proxy.getConsoleCommandSource().sendMessage(LogUtil.getHeading().append(Component.text("HTTP pool: ").color(NamedTextColor.YELLOW)).append(Component.text(cachedValues.getHttpPoolMaxIdle() + " idle, " + cachedValues.getHttpPoolKeepAlive() + "ms keep-alive").color(NamedTextColor.WHITE)));
         }
     }
 